@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.Arrays;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
@@ -12,14 +13,26 @@ class Alphabet {
     Alphabet(String chars) {
         _chars = chars;
 
+        char lo = Character.MAX_VALUE, hi = Character.MIN_VALUE;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            lo = (char) Math.min(lo, c);
+            hi = (char) Math.max(hi, c);
+        }
+        if (chars.isEmpty()) {
+            lo = hi = 0;
+        }
+        _first = lo;
+        _index = new int[hi - lo + 1];
+        Arrays.fill(_index, -1);
 
         for (int i = 0; i < chars.length(); i++) {
-            for (int j = i + 1; j < chars.length(); j++) {
-                if (_chars.charAt(i) == _chars.charAt(j)) {
-                    throw EnigmaException.error("No character may "
-                            + "be duplicated.");
-                }
+            int k = chars.charAt(i) - _first;
+            if (_index[k] >= 0) {
+                throw EnigmaException.error("No character may "
+                        + "be duplicated.");
             }
+            _index[k] = i;
         }
     }
 
@@ -28,6 +41,11 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** Returns the characters of the alphabet, in order. */
+    String chars() {
+        return _chars;
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
         return _chars.length();
@@ -35,7 +53,7 @@ class Alphabet {
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _chars.indexOf(ch) >= 0;
+        return toInt(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
@@ -47,9 +65,21 @@ class Alphabet {
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return _chars.indexOf(ch);
+        int k = ch - _first;
+        if (k < 0 || k >= _index.length) {
+            return -1;
+        }
+        return _index[k];
     }
 
     /** The alphabets. */
     private String _chars;
+
+    /** Smallest character of the alphabet, the origin of _index. */
+    private final char _first;
+
+    /** _index[C - _first] is the index of character C, or -1 if C is
+     *  not in the alphabet.  Covers only the range of characters that
+     *  actually occur, so dense alphabets stay small. */
+    private final int[] _index;
 }
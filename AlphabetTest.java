@@ -0,0 +1,60 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author Heming Wu
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void checkUpper() {
+        assertEquals(26, UPPER.size());
+        for (int i = 0; i < UPPER_STRING.length(); i += 1) {
+            char c = UPPER_STRING.charAt(i);
+            assertTrue(UPPER.contains(c));
+            assertEquals(i, UPPER.toInt(c));
+            assertEquals(c, UPPER.toChar(i));
+        }
+        assertFalse(UPPER.contains('a'));
+        assertEquals(-1, UPPER.toInt('@'));
+        assertEquals(-1, UPPER.toInt('['));
+    }
+
+    @Test
+    public void checkSparse() {
+        Alphabet alpha = new Alphabet("z\u4e2d0");
+        assertEquals(0, alpha.toInt('z'));
+        assertEquals(1, alpha.toInt('\u4e2d'));
+        assertEquals(2, alpha.toInt('0'));
+        assertFalse(alpha.contains('1'));
+        assertFalse(alpha.contains('\uffff'));
+    }
+
+    @Test
+    public void checkLarge() {
+        StringBuilder chars = new StringBuilder();
+        for (int c = Character.MAX_VALUE; c >= 0; c -= 1) {
+            chars.append((char) c);
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        assertEquals(65536, alpha.size());
+        assertEquals(0, alpha.toInt(Character.MAX_VALUE));
+        assertEquals(65535, alpha.toInt('\0'));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicates() {
+        new Alphabet("ABCA");
+    }
+
+}
@@ -0,0 +1,361 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A batch of independent messages, each with its own key, converted
+ *  together.  Each message occupies a lane; all lanes step and convert
+ *  their t-th characters together, one rotor slot at a time.  Lane
+ *  states are kept as structures of arrays (the value for slot I of
+ *  lane L at [I * lanes() + L]), every rotor's conversions at every
+ *  shift and its notches are looked up in flat tables, and there are
+ *  no virtual calls, so each inner loop is a simple pass over the
+ *  lanes.  The tables are built once for each rotor used and kept when
+ *  the batch is cleared and refilled.  For alphabets too large for
+ *  tables, messages are converted one at a time by the template machine
+ *  instead.  Characters and rotor movements are counted in the template
+ *  machine's metrics, if it has any.
+ *  @author Heming Wu
+ */
+class Batch {
+
+    /** An empty batch of messages for machines like TEMPLATE, which must
+     *  have its rotors inserted.  TEMPLATE's state may be changed by add
+     *  and run. */
+    Batch(Machine template) {
+        _template = template;
+        _alphabet = template.alphabet();
+        _size = _alphabet.size();
+        _numRotors = template.numRotors();
+        _chars = _alphabet.chars().toCharArray();
+    }
+
+    /** Add MESSAGE, to be converted by my template machine in the state
+     *  KEY (one of its snapshots), returning its lane.  Leaves the
+     *  template in state KEY. */
+    int add(Machine.Snapshot key, String message) {
+        _template.restore(key);
+        return add(message);
+    }
+
+    /** Add MESSAGE, to be converted by my template machine in its
+     *  present state, returning its lane. */
+    int add(String message) {
+        return add(indices(message));
+    }
+
+    /** Add TEXT, a message as indices in my alphabet, to be converted by
+     *  my template machine in its present state, returning its lane.
+     *  TEXT is not copied, so it may be shared between lanes, and must
+     *  not change until I am run. */
+    int add(int[] text) {
+        _slotRotors.add(_template.slotRotors());
+        _positions.add(_template.positions());
+        _rings.add(_template.rings());
+        _plugboards.add(_template.plugboard());
+        _texts.add(text);
+        _maxLength = Math.max(_maxLength, text.length);
+        _output = null;
+        return _texts.size() - 1;
+    }
+
+    /** Return MESSAGE as indices in my alphabet. */
+    int[] indices(String message) {
+        int[] text = new int[message.length()];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = _alphabet.toInt(message.charAt(i));
+            if (text[i] < 0) {
+                throw error("Letter(s) not in alphabet");
+            }
+        }
+        return text;
+    }
+
+    /** Remove all messages, keeping my tables for the next run. */
+    void clear() {
+        _slotRotors.clear();
+        _positions.clear();
+        _rings.clear();
+        _plugboards.clear();
+        _texts.clear();
+        _maxLength = 0;
+        _output = null;
+    }
+
+    /** Return the number of messages added. */
+    int lanes() {
+        return _texts.size();
+    }
+
+    /** Return the length of the message in LANE. */
+    int length(int lane) {
+        return _texts.get(lane).length;
+    }
+
+    /** Convert every message added. */
+    void run() {
+        int lanes = lanes();
+        _output = new char[_maxLength * lanes];
+        if (_size > Rotor.MAX_TABLE_SIZE) {
+            runEach();
+            _template.publishMetrics();
+            return;
+        }
+        load();
+        long moves = 0;
+        for (int t = 0; t < _maxLength; t += 1) {
+            moves += step(t);
+            convert(t);
+        }
+        Metrics metrics = _template.metrics();
+        if (metrics != null) {
+            long chars = 0;
+            for (int[] text : _texts) {
+                chars += text.length;
+            }
+            Machine.publish(metrics, chars, chars + moves);
+        }
+    }
+
+    /** Return the converted message in LANE, after run. */
+    String result(int lane) {
+        int lanes = lanes(), len = length(lane);
+        char[] result = new char[len];
+        for (int t = 0; t < len; t += 1) {
+            result[t] = output()[t * lanes + lane];
+        }
+        return new String(result);
+    }
+
+    /** Return the converted messages after run: character T of the
+     *  message in lane L is at [T * lanes() + L], for T < length(L). */
+    char[] output() {
+        if (_output == null) {
+            throw error("batch has not been run");
+        }
+        return _output;
+    }
+
+    /** Convert the messages one at a time with the template machine. */
+    private void runEach() {
+        int lanes = lanes();
+        for (int lane = 0; lane < lanes; lane += 1) {
+            _template.insertRotors(_slotRotors.get(lane));
+            _template.setPlugboard(_plugboards.get(lane));
+            _template.setRotors(_positions.get(lane), _rings.get(lane));
+            int[] text = _texts.get(lane);
+            for (int t = 0; t < text.length; t += 1) {
+                _output[t * lanes + lane] =
+                    _alphabet.toChar(_template.convert(text[t]));
+            }
+        }
+    }
+
+    /** Fill the lane states from the messages added, building the
+     *  tables of any rotors not used before. */
+    private void load() {
+        List<Rotor> rotors = _template.availableRotors();
+        int size = _size, lanes = lanes();
+        if (_built == null) {
+            _built = new boolean[rotors.size()];
+            _forward = new int[rotors.size() * size * size];
+            _backward = new int[rotors.size() * size * size];
+            _notches = new boolean[rotors.size() * 2 * size];
+        }
+        _base = new int[_numRotors * lanes];
+        _notchBase = new int[_numRotors * lanes];
+        _moving = new boolean[_numRotors * lanes];
+        _shift = new int[_numRotors * lanes];
+        _plugs = new int[lanes * size];
+        _input = new int[_maxLength * lanes];
+        _lengths = new int[lanes];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            for (int i = 0; i < _numRotors; i += 1) {
+                int j = _slotRotors.get(lane)[i], o = i * lanes + lane;
+                build(j, rotors.get(j));
+                int ring = _rings.get(lane)[i];
+                int shift = _positions.get(lane)[i] - ring;
+                _base[o] = j * size * size;
+                _notchBase[o] = j * 2 * size + ring;
+                _moving[o] = rotors.get(j).rotates();
+                _shift[o] = shift < 0 ? shift + size : shift;
+            }
+            Permutation plugs = _plugboards.get(lane);
+            for (int c = 0; c < size; c += 1) {
+                _plugs[lane * size + c] = plugs.permute(c);
+            }
+            int[] text = _texts.get(lane);
+            for (int t = 0; t < text.length; t += 1) {
+                _input[t * lanes + lane] = text[t];
+            }
+            _lengths[lane] = text.length;
+        }
+        _rightAtNotch = new boolean[lanes];
+        _current = new int[lanes];
+    }
+
+    /** Fill the tables of ROTOR, available rotor number J, unless that
+     *  has been done. */
+    private void build(int j, Rotor rotor) {
+        if (_built[j]) {
+            return;
+        }
+        int size = _size;
+        for (int shift = 0, k = j * size * size; shift < size; shift++) {
+            for (int p = 0; p < size; p++, k++) {
+                _forward[k] = rotor.convertForward(shift, 0, p);
+                _backward[k] = rotor.convertBackward(shift, 0, p);
+            }
+        }
+        for (int p = 0; p < 2 * size; p += 1) {
+            _notches[j * 2 * size + p] = rotor.notchAt(p % size);
+        }
+        _built[j] = true;
+    }
+
+    /** Advance the rotors of every lane as Machine.step would for
+     *  character T.  Returns the advances, as counted by Machine.step,
+     *  of all but the rightmost rotors of the lanes whose messages
+     *  have a character T. */
+    private long step(int t) {
+        int lanes = lanes(), size = _size, last = _numRotors - 1;
+        int[] shift = _shift, notchBase = _notchBase, lengths = _lengths;
+        long moves = 0;
+        boolean[] moving = _moving, notches = _notches, right = _rightAtNotch;
+        for (int l = 0, o = last * lanes; l < lanes; l += 1) {
+            right[l] = notches[notchBase[o + l] + shift[o + l]];
+        }
+        for (int i = last - 1; i > 0; i -= 1) {
+            int o = i * lanes;
+            for (int l = 0; l < lanes; l += 1) {
+                int s = shift[o + l];
+                boolean atNotch = notches[notchBase[o + l] + s];
+                if (moving[o + l]
+                    && (right[l] || (atNotch && moving[o - lanes + l]))) {
+                    shift[o + l] = s + 1 == size ? 0 : s + 1;
+                    if (t < lengths[l]) {
+                        moves += right[l] ? 1 : 1 + Machine.DOUBLE_STEP;
+                    }
+                }
+                right[l] = atNotch;
+            }
+        }
+        for (int l = 0, o = last * lanes; l < lanes; l += 1) {
+            int s = shift[o + l] + 1;
+            shift[o + l] = s == size ? 0 : s;
+        }
+        return moves;
+    }
+
+    /** Convert character T of every lane into _output. */
+    private void convert(int t) {
+        int lanes = lanes(), size = _size, last = _numRotors - 1;
+        int[] shift = _shift, base = _base, current = _current;
+        int[] plugs = _plugs, forward = _forward, backward = _backward;
+        for (int l = 0; l < lanes; l += 1) {
+            current[l] = plugs[l * size + _input[t * lanes + l]];
+        }
+        for (int i = last; i >= 0; i -= 1) {
+            int o = i * lanes;
+            for (int l = 0; l < lanes; l += 1) {
+                current[l] =
+                    forward[base[o + l] + shift[o + l] * size + current[l]];
+            }
+        }
+        for (int i = 1; i <= last; i += 1) {
+            int o = i * lanes;
+            for (int l = 0; l < lanes; l += 1) {
+                current[l] =
+                    backward[base[o + l] + shift[o + l] * size + current[l]];
+            }
+        }
+        char[] chars = _chars;
+        for (int l = 0, o = t * lanes; l < lanes; l += 1) {
+            _output[o + l] = chars[plugs[l * size + current[l]]];
+        }
+    }
+
+    /** The machine whose rotors and snapshots are used. */
+    private final Machine _template;
+
+    /** Alphabet of _template. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots of _template. */
+    private final int _numRotors;
+
+    /** The characters of _alphabet, by index. */
+    private final char[] _chars;
+
+    /** Available-rotor index of each slot, by lane. */
+    private final List<int[]> _slotRotors = new ArrayList<>();
+
+    /** Starting settings of each slot, by lane. */
+    private final List<int[]> _positions = new ArrayList<>();
+
+    /** Ring settings of each slot, by lane. */
+    private final List<int[]> _rings = new ArrayList<>();
+
+    /** Plugboard of each lane. */
+    private final List<Permutation> _plugboards = new ArrayList<>();
+
+    /** Message of each lane, as alphabet indices. */
+    private final List<int[]> _texts = new ArrayList<>();
+
+    /** Length of the longest message. */
+    private int _maxLength;
+
+    /** True for each available rotor whose tables have been built, or
+     *  null before the first run. */
+    private boolean[] _built;
+
+    /** Conversions of every available rotor: those of rotor J at shift
+     *  S (its setting less its ring setting) are at
+     *  [(J * size + S) * size ..]. */
+    private int[] _forward, _backward;
+
+    /** _notches[J * 2 * size + P] is true iff rotor J has a notch at P
+     *  modulo size. */
+    private boolean[] _notches;
+
+    /** Offset in _forward and _backward of the tables of the rotor in
+     *  each slot of each lane, indexed [slot * lanes + lane]. */
+    private int[] _base;
+
+    /** Offset in _notches of the notches of the rotor in each slot of
+     *  each lane, plus its ring setting. */
+    private int[] _notchBase;
+
+    /** True iff the rotor of each slot of each lane moves. */
+    private boolean[] _moving;
+
+    /** Setting less ring setting, modulo size, of each slot of each
+     *  lane. */
+    private int[] _shift;
+
+    /** Plugboard of each lane: [lane * size + c] is the image of c. */
+    private int[] _plugs;
+
+    /** Message characters, indexed [t * lanes + lane]. */
+    private int[] _input;
+
+    /** Length of the message in each lane. */
+    private int[] _lengths;
+
+    /** Converted characters, indexed [t * lanes + lane], or null until
+     *  run. */
+    private char[] _output;
+
+    /** Per-lane scratch: whether the rotor to the right is at a
+     *  notch. */
+    private boolean[] _rightAtNotch;
+
+    /** Per-lane scratch: the character being converted. */
+    private int[] _current;
+
+}
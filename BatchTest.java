@@ -0,0 +1,113 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Heming Wu
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMixedKeys() {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "III", "IV",
+                                                   "I" },
+                                 "AXLE", "", "(HQ) (EX) (IP) (TR) (BY)");
+        String[][] keys = {
+            { "B Beta III IV I", "AXLE", "AAAA", "(HQ) (EX)" },
+            { "B Beta I II III", "AADU", "AAAA", "" },
+            { "C Gamma VI VII VIII", "ZZZZ", "BCDE", "(AZ) (MN)" },
+            { "B Beta II V IV", "QEVJ", "AAZZ", "(AB) (CD) (EF)" },
+            { "C Beta VIII VI III", "MZMZ", "ZMZM", "" },
+        };
+        List<Machine.Snapshot> snapshots = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        for (int k = 0; k < 40; k += 1) {
+            String[] key = keys[k % keys.length];
+            m.insertRotors(key[0].split(" "));
+            m.setRotors(key[1], key[2]);
+            m.setPlugboard(new Permutation(key[3], UPPER));
+            snapshots.add(m.snapshot());
+            StringBuilder msg = new StringBuilder();
+            for (int i = 0; i < k * 37 % 700; i += 1) {
+                msg.append(UPPER.toChar((i * 11 + k) % 26));
+            }
+            messages.add(msg.toString());
+        }
+        Batch batch = new Batch(m);
+        for (int k = 0; k < snapshots.size(); k += 1) {
+            assertEquals(k, batch.add(snapshots.get(k), messages.get(k)));
+        }
+        Metrics counted = new Metrics();
+        m.setMetrics(counted);
+        batch.run();
+        Metrics expected = new Metrics();
+        m.setMetrics(expected);
+        assertEquals(snapshots.size(), batch.lanes());
+        for (int k = 0; k < snapshots.size(); k += 1) {
+            m.restore(snapshots.get(k));
+            assertEquals("lane " + k, m.convert(messages.get(k)),
+                         batch.result(k));
+            assertEquals(messages.get(k).length(), batch.length(k));
+        }
+        m.publishMetrics();
+        for (Metrics.Count c : new Metrics.Count[] {
+                Metrics.Count.CHARACTERS, Metrics.Count.ROTOR_ADVANCES,
+                Metrics.Count.DOUBLE_STEPS }) {
+            assertEquals(c.toString(), expected.snapshot().count(c),
+                         counted.snapshot().count(c));
+        }
+        assertTrue(counted.snapshot().count(Metrics.Count.DOUBLE_STEPS) > 0);
+    }
+
+    @Test
+    public void checkKnownMessage() {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "III", "IV",
+                                                   "I" },
+                                 "AXLE", "", "(HQ) (EX) (IP) (TR) (BY)");
+        Batch batch = new Batch(m);
+        batch.add(m.snapshot(), "FROMHISSHOULDERHIAWATHA");
+        batch.add(m.snapshot(), "");
+        batch.run();
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", batch.result(0));
+        assertEquals("", batch.result(1));
+        assertEquals(23 * 2, batch.output().length);
+        batch.clear();
+        assertEquals(0, batch.lanes());
+        batch.add(m.snapshot(), "QVPQSOKOILPUBKJZPISFXDW");
+        batch.run();
+        assertEquals("FROMHISSHOULDERHIAWATHA", batch.result(0));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNotRun() {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "I", "II",
+                                                   "III" },
+                                 "AAAA", "", "");
+        Batch batch = new Batch(m);
+        batch.add(m.snapshot(), "ABC");
+        batch.output();
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadLetter() {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "I", "II",
+                                                   "III" },
+                                 "AAAA", "", "");
+        new Batch(m).add(m.snapshot(), "AB1");
+    }
+
+}
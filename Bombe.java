@@ -0,0 +1,522 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** A crib attack in the manner of the Turing-Welchman bombe.  A crib is
+ *  a guess at the plaintext of part of a ciphertext.  Each of its
+ *  letters and the ciphertext letter under it form an edge of a graph,
+ *  the menu, labelled with the keypress at which they were exchanged.
+ *
+ *  For each rotor order and start position, the bombe supposes that
+ *  the plugboard connects the most-connected menu letter to some
+ *  letter, and follows the consequences: if the plugboard connects X
+ *  to Y, then it connects Y to X, and for each menu edge X-Z at
+ *  keypress K, it connects Z to the rotors' substitution of Y at K.
+ *  A supposition that forces some letter to be connected to two
+ *  different letters is false, and so is every other supposition it
+ *  reached along the way.  Those that survive are reported as stops,
+ *  with the plugboard connections they imply.  Ring settings are
+ *  assumed to be at the first character.
+ *  @author Heming Wu
+ */
+class Bombe {
+
+    /** A bombe for machines with alphabet ALPHA, NUMROTORS rotor slots
+     *  and PAWLS pawls, trying every rotor order that can be built from
+     *  ALLROTORS (see KeySearch.orders). */
+    Bombe(Alphabet alpha, int numRotors, int pawls,
+          Collection<Rotor> allRotors) {
+        Machine.checkShape(numRotors, pawls);
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _allRotors = new ArrayList<>(allRotors);
+        _orders = KeySearch.orders(allRotors, numRotors, pawls);
+        if (_orders.isEmpty()) {
+            throw error("rotor library cannot fill the machine");
+        }
+    }
+
+    /** Run rotor orders on THREADS threads (initially the number of
+     *  available processors). */
+    void setParallelism(int threads) {
+        if (threads < 1) {
+            throw error("parallelism must be positive");
+        }
+        _threads = threads;
+    }
+
+    /** Return the positions in CIPHERTEXT at which CRIB could lie: those
+     *  at which no crib letter falls on the same ciphertext letter,
+     *  which an Enigma machine cannot produce. */
+    static List<Integer> offsets(String ciphertext, String crib) {
+        List<Integer> result = new ArrayList<>();
+        for (int off = 0; off + crib.length() <= ciphertext.length();
+             off += 1) {
+            boolean possible = true;
+            for (int i = 0; i < crib.length() && possible; i += 1) {
+                possible = crib.charAt(i) != ciphertext.charAt(off + i);
+            }
+            if (possible) {
+                result.add(off);
+            }
+        }
+        return result;
+    }
+
+    /** Return the stops found for CRIB lying at position OFFSET in
+     *  CIPHERTEXT, over all rotor orders and start positions. */
+    List<Stop> run(String ciphertext, String crib, int offset) {
+        if (offset < 0 || offset + crib.length() > ciphertext.length()) {
+            throw error("crib does not fit in ciphertext");
+        }
+        int[] plain = new int[crib.length()], cipher = new int[crib.length()];
+        for (int i = 0; i < crib.length(); i += 1) {
+            plain[i] = index(crib.charAt(i));
+            cipher[i] = index(ciphertext.charAt(offset + i));
+            if (plain[i] == cipher[i]) {
+                throw error("crib letter %c enciphers to itself",
+                            crib.charAt(i));
+            }
+        }
+        Menu menu = new Menu(plain, cipher, _alphabet.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            List<Callable<List<Stop>>> tasks = new ArrayList<>();
+            for (String[] order : _orders) {
+                tasks.add(() -> run(order, menu, offset));
+            }
+            List<Stop> result = new ArrayList<>();
+            for (Future<List<Stop>> f : pool.invokeAll(tasks)) {
+                result.addAll(f.get());
+            }
+            return result;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("bombe interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("bombe failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the stops for rotor order ORDER against MENU, whose first
+     *  edge is at keypress OFFSET. */
+    private List<Stop> run(String[] order, Menu menu, int offset) {
+        Machine machine =
+            new Machine(_alphabet, _numRotors, _pawls, _allRotors);
+        machine.insertRotors(order);
+        char[] first = new char[_numRotors - 1];
+        Arrays.fill(first, _alphabet.toChar(0));
+        machine.setRotors(new String(first), "");
+
+        Scrambler scrambler =
+            new Scrambler(machine, menu.length(), _alphabet.size());
+        Closure closure = new Closure(menu, scrambler);
+        List<Stop> result = new ArrayList<>();
+        int size = _alphabet.size();
+        int[] start = new int[_numRotors];
+        do {
+            scrambler.moveTo(start, offset);
+            closure.reset();
+            for (int h = 0; h < size; h += 1) {
+                if (!closure.refuted(h) && closure.test(h)) {
+                    result.add(new Stop(order, setting(start),
+                                        closure.plugboard(_alphabet)));
+                }
+            }
+        } while (next(start, size));
+        return result;
+    }
+
+    /** Return the index of C in my alphabet. */
+    private int index(char c) {
+        int result = _alphabet.toInt(c);
+        if (result < 0) {
+            throw error("Letter(s) not in alphabet");
+        }
+        return result;
+    }
+
+    /** Return the settings string for rotor settings POS. */
+    private String setting(int[] pos) {
+        char[] result = new char[pos.length - 1];
+        for (int i = 1; i < pos.length; i += 1) {
+            result[i - 1] = _alphabet.toChar(pos[i]);
+        }
+        return new String(result);
+    }
+
+    /** Advance POS[1 ..] to the next combination of settings in an
+     *  alphabet of SIZE characters, rightmost slot fastest.  Return false
+     *  if POS was the last combination (and is now all 0). */
+    private static boolean next(int[] pos, int size) {
+        for (int i = pos.length - 1; i > 0; i -= 1) {
+            pos[i] += 1;
+            if (pos[i] < size) {
+                return true;
+            }
+            pos[i] = 0;
+        }
+        return false;
+    }
+
+    /** The letter-pair graph of a crib. */
+    private static final class Menu {
+
+        /** The menu for crib letters PLAIN over ciphertext letters CIPHER,
+         *  as indices in an alphabet of SIZE characters. */
+        Menu(int[] plain, int[] cipher, int size) {
+            _size = size;
+            _length = plain.length;
+            int[] degree = new int[size];
+            for (int i = 0; i < plain.length; i += 1) {
+                degree[plain[i]] += 1;
+                degree[cipher[i]] += 1;
+            }
+            _start = new int[size + 1];
+            for (int c = 0; c < size; c += 1) {
+                _start[c + 1] = _start[c] + degree[c];
+            }
+            _other = new int[_start[size]];
+            _keypress = new int[_start[size]];
+            int[] fill = Arrays.copyOf(_start, size);
+            for (int i = 0; i < plain.length; i += 1) {
+                _other[fill[plain[i]]] = cipher[i];
+                _keypress[fill[plain[i]]++] = i;
+                _other[fill[cipher[i]]] = plain[i];
+                _keypress[fill[cipher[i]]++] = i;
+            }
+            int test = 0;
+            for (int c = 1; c < size; c += 1) {
+                if (degree[c] > degree[test]) {
+                    test = c;
+                }
+            }
+            _test = test;
+        }
+
+        /** Return the number of edges. */
+        int length() {
+            return _length;
+        }
+
+        /** Return the size of the alphabet. */
+        int size() {
+            return _size;
+        }
+
+        /** Return the letter whose plugboard partner is guessed. */
+        int test() {
+            return _test;
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Number of edges. */
+        private final int _length;
+
+        /** The edges at letter C are numbered _start[C] to
+         *  _start[C + 1] - 1. */
+        private final int[] _start;
+
+        /** The letter at the other end of each edge. */
+        private final int[] _other;
+
+        /** The crib position (keypress after the first) of each edge. */
+        private final int[] _keypress;
+
+        /** The most connected letter. */
+        private final int _test;
+    }
+
+    /** The substitutions made by a machine's rotors, without plugboard,
+     *  at each crib position, computed as they are needed. */
+    private static final class Scrambler {
+
+        /** Scramblers for LENGTH crib positions of MACHINE, whose
+         *  alphabet has SIZE characters. */
+        Scrambler(Machine machine, int length, int size) {
+            _machine = machine;
+            _length = length;
+            _size = size;
+            _positions = new int[length][];
+            _table = new int[length * size];
+            _stamp = new int[_table.length];
+        }
+
+        /** Use the rotor settings that the crib positions reach from
+         *  start settings START when the crib begins at keypress
+         *  OFFSET. */
+        void moveTo(int[] start, int offset) {
+            int[] pos = start.clone();
+            _machine.skip(pos, offset);
+            for (int i = 0; i < _length; i += 1) {
+                _machine.step(pos);
+                if (_positions[i] == null) {
+                    _positions[i] = new int[pos.length];
+                }
+                System.arraycopy(pos, 0, _positions[i], 0, pos.length);
+            }
+            _generation += 1;
+        }
+
+        /** Return the rotors' substitution of C at crib position K. */
+        int apply(int k, int c) {
+            int i = k * _size + c;
+            if (_stamp[i] != _generation) {
+                _table[i] = _machine.scrambleAt(_positions[k], c);
+                _stamp[i] = _generation;
+            }
+            return _table[i];
+        }
+
+        /** The machine whose rotors are used. */
+        private final Machine _machine;
+
+        /** Number of crib positions. */
+        private final int _length;
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Rotor settings at each crib position. */
+        private final int[][] _positions;
+
+        /** Computed substitutions, indexed by crib position and letter. */
+        private final int[] _table;
+
+        /** Entries of _table are valid iff the matching entry of _stamp is
+         *  _generation. */
+        private final int[] _stamp;
+
+        /** Number of calls to moveTo. */
+        private int _generation = 1;
+    }
+
+    /** The plugboard connections implied by a supposition, kept as one
+     *  bitset per letter, with the bitset of suppositions about the test
+     *  letter already shown to be false. */
+    private static final class Closure {
+
+        /** A closure over MENU using substitutions from SCRAMBLER. */
+        Closure(Menu menu, Scrambler scrambler) {
+            _menu = menu;
+            _scrambler = scrambler;
+            int size = menu.size();
+            _words = (size + 63) >>> 6;
+            _rows = new long[size * _words];
+            _refuted = new long[_words];
+            _touched = new int[size];
+            _pending = new int[2 * size];
+        }
+
+        /** Forget all suppositions, for new rotor settings. */
+        void reset() {
+            Arrays.fill(_refuted, 0L);
+        }
+
+        /** Return true iff the supposition that the test letter is
+         *  connected to H is known to be false. */
+        boolean refuted(int h) {
+            return (_refuted[h >>> 6] & (1L << h)) != 0;
+        }
+
+        /** Follow the consequences of supposing that the test letter is
+         *  connected to H.  Return true iff they are consistent, in which
+         *  case plugboard() gives them.  Otherwise, record H and every
+         *  other supposition about the test letter reached as refuted. */
+        boolean test(int h) {
+            clear();
+            int test = _menu.test();
+            boolean consistent = connect(test, h);
+            while (consistent && _top > 0) {
+                int y = _pending[--_top], x = _pending[--_top];
+                consistent = connect(y, x);
+                for (int e = _menu._start[x];
+                     consistent && e < _menu._start[x + 1]; e += 1) {
+                    consistent = connect(_menu._other[e],
+                                         _scrambler.apply(_menu._keypress[e],
+                                                          y));
+                }
+            }
+            if (!consistent) {
+                int row = test * _words;
+                for (int w = 0; w < _words; w += 1) {
+                    _refuted[w] |= _rows[row + w];
+                }
+            }
+            return consistent;
+        }
+
+        /** Return the plugboard connections found by the last successful
+         *  test, in cycle notation over ALPHA, omitting letters connected
+         *  to themselves. */
+        String plugboard(Alphabet alpha) {
+            StringBuilder result = new StringBuilder();
+            int size = _menu.size();
+            for (int x = 0; x < size; x += 1) {
+                int y = partner(x);
+                if (y > x) {
+                    result.append('(').append(alpha.toChar(x))
+                        .append(alpha.toChar(y)).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Record that X is connected to Y.  Return false if X is then
+         *  connected to two different letters. */
+        private boolean connect(int x, int y) {
+            int row = x * _words, w = y >>> 6;
+            long bit = 1L << y;
+            if ((_rows[row + w] & bit) != 0) {
+                return true;
+            }
+            boolean empty = true;
+            for (int i = 0; i < _words && empty; i += 1) {
+                empty = _rows[row + i] == 0;
+            }
+            if (empty) {
+                _touched[_numTouched++] = x;
+            }
+            _rows[row + w] |= bit;
+            if (!empty) {
+                return false;
+            }
+            _pending[_top++] = x;
+            _pending[_top++] = y;
+            return true;
+        }
+
+        /** Return the letter connected to X, or -1 if none is known. */
+        private int partner(int x) {
+            int row = x * _words;
+            for (int w = 0; w < _words; w += 1) {
+                if (_rows[row + w] != 0) {
+                    return (w << 6)
+                        + Long.numberOfTrailingZeros(_rows[row + w]);
+                }
+            }
+            return -1;
+        }
+
+        /** Discard the connections from the last test. */
+        private void clear() {
+            for (int i = 0; i < _numTouched; i += 1) {
+                Arrays.fill(_rows, _touched[i] * _words,
+                            (_touched[i] + 1) * _words, 0L);
+            }
+            _numTouched = 0;
+            _top = 0;
+        }
+
+        /** The menu followed. */
+        private final Menu _menu;
+
+        /** Source of rotor substitutions. */
+        private final Scrambler _scrambler;
+
+        /** Longs per bitset. */
+        private final int _words;
+
+        /** Bitset of letters connected to each letter, _words longs per
+         *  letter. */
+        private final long[] _rows;
+
+        /** Bitset of refuted suppositions about the test letter. */
+        private final long[] _refuted;
+
+        /** Letters with nonempty rows. */
+        private final int[] _touched;
+
+        /** Number of entries in _touched. */
+        private int _numTouched;
+
+        /** Stack of connections (pairs of letters) whose consequences
+         *  have yet to be followed. */
+        private final int[] _pending;
+
+        /** Number of entries in _pending. */
+        private int _top;
+    }
+
+    /** A surviving rotor order, start position and partial plugboard. */
+    static final class Stop {
+
+        /** A stop for rotors ROTORS (reflector first) at SETTING, with
+         *  the plugboard connections PLUGBOARD. */
+        Stop(String[] rotors, String setting, String plugboard) {
+            _rotors = rotors.clone();
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the rotor settings at the start of the ciphertext. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the implied plugboard connections in cycle notation,
+         *  omitting letters connected to themselves. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return my key as a settings line for Main. */
+        @Override
+        public String toString() {
+            return ("* " + String.join(" ", _rotors) + " " + _setting
+                    + " " + _plugboard).trim();
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _rotors;
+
+        /** Rotor settings. */
+        private final String _setting;
+
+        /** Plugboard connections. */
+        private final String _plugboard;
+    }
+
+    /** Alphabet of the machines tried. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** The rotor library, shared by the machines for each rotor order. */
+    private final List<Rotor> _allRotors;
+
+    /** Every rotor order tried, reflector first. */
+    private final List<String[]> _orders;
+
+    /** Number of threads. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+}
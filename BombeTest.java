@@ -0,0 +1,99 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Heming Wu
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plaintext of the test message. */
+    private static final String PLAIN =
+        "ANXGENERALSTABNACHRICHTENABTEILUNGWETTERVORHERSAGEFUERMORGEN";
+
+    /** The part of PLAIN used as a crib, and its position. */
+    private static final String CRIB = "WETTERVORHERSAGEFUERMORGEN";
+
+    /** Position of CRIB in PLAIN. */
+    private static final int OFFSET = PLAIN.indexOf(CRIB);
+
+    /** Rotors of the test message. */
+    private static final String[] ROTORS = { "B", "Beta", "II", "I" };
+
+    /** Plugboard of the test message. */
+    private static final String PLUGBOARD = "(AQ) (EX) (TR) (NB) (OZ)";
+
+    /** Return PLAIN encrypted with ROTORS at SETTING and PLUGBOARD. */
+    private String encrypt(String setting) {
+        return navalMachine(2, ROTORS, setting, "", PLUGBOARD).convert(PLAIN);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkOffsets() {
+        String cipher = encrypt("KDQ");
+        List<Integer> offsets = Bombe.offsets(cipher, CRIB);
+        assertTrue(offsets.contains(OFFSET));
+        for (int off : offsets) {
+            for (int i = 0; i < CRIB.length(); i += 1) {
+                assertNotEquals(CRIB.charAt(i), cipher.charAt(off + i));
+            }
+        }
+        assertEquals(Arrays.asList(0), Bombe.offsets("ABC", "BD"));
+        assertTrue(Bombe.offsets("AB", "ABC").isEmpty());
+    }
+
+    @Test
+    public void checkFindsKey() {
+        String cipher = encrypt("KDQ");
+        Bombe bombe = new Bombe(UPPER, 4, 2, library());
+        bombe.setParallelism(4);
+        List<Bombe.Stop> stops = bombe.run(cipher, CRIB, OFFSET);
+        Permutation plugs = new Permutation(PLUGBOARD, UPPER);
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            if (Arrays.equals(ROTORS, stop.rotors())
+                && stop.setting().equals("KDQ")) {
+                found = true;
+                Permutation implied = new Permutation(stop.plugboard(), UPPER);
+                for (char c : CRIB.toCharArray()) {
+                    int i = UPPER.toInt(c);
+                    assertEquals(plugs.permute(i), implied.permute(i));
+                }
+            }
+        }
+        assertTrue("true key not among stops", found);
+        assertTrue("too many stops: " + stops.size(), stops.size() < 1000);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSelfEncipherment() {
+        new Bombe(UPPER, 4, 2, library()).run("ABCD", "XB", 0);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkCribTooLong() {
+        new Bombe(UPPER, 4, 2, library()).run("ABCD", "XYZ", 2);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadShape() {
+        new Bombe(UPPER, 1, 0, library());
+    }
+
+}
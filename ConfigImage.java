@@ -0,0 +1,234 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed machine configuration, which can be saved as a binary image
+ *  and loaded again without parsing.  The image holds the alphabet, the
+ *  number of slots and pawls, and each rotor's kind, name, notches and
+ *  forward and inverse tables, so loading it is one mapping of the file
+ *  and a pass over its contents.  It also records the size and
+ *  modification time of the text configuration it was made from, and a
+ *  checksum, so that a stale or damaged image is detected and the text
+ *  can be parsed instead.
+ *
+ *  Layout, in big-endian order: the int MAGIC, the int VERSION, the
+ *  source's length and modification time in milliseconds (longs), the
+ *  number of slots and of pawls (ints), the alphabet size and its
+ *  chars, the number of rotors, and for each rotor a kind byte ('R',
+ *  'N' or 'M'), its notches and name (each an int length and chars),
+ *  and its forward and inverse tables (alphabet size ints each).  The
+ *  image ends with the CRC-32 of everything before it, as an int.
+ *  @author Heming Wu
+ */
+class ConfigImage {
+
+    /** A configuration with alphabet ALPHA, NUMROTORS rotor slots, PAWLS
+     *  pawls and available rotors ROTORS. */
+    ConfigImage(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> rotors) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _rotors = new ArrayList<>(rotors);
+    }
+
+    /** Return the image file used for the text configuration SOURCE. */
+    static Path imageFor(Path source) {
+        return source.resolveSibling(source.getFileName() + ".img");
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int pawls() {
+        return _pawls;
+    }
+
+    /** Return my available rotors. */
+    List<Rotor> rotors() {
+        return _rotors;
+    }
+
+    /** Return a new machine with my configuration and no rotors
+     *  inserted.  Machines made this way share my rotors. */
+    Machine machine() {
+        return new Machine(_alphabet, _numRotors, _pawls, _rotors);
+    }
+
+    /** Write me to IMAGE, recording the present length and modification
+     *  time of SOURCE, the text I was parsed from.  The image is written
+     *  to a temporary file and then moved into place, so a reader never
+     *  sees a partial image. */
+    void write(Path image, Path source) {
+        Path temp = image.resolveSibling(image.getFileName() + ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(
+                     new CheckedOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(temp)),
+                         crc))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(source));
+                out.writeLong(Files.getLastModifiedTime(source).toMillis());
+                out.writeInt(_numRotors);
+                out.writeInt(_pawls);
+                writeString(out, _alphabet.chars());
+                out.writeInt(_rotors.size());
+                for (Rotor r : _rotors) {
+                    if (r.reflecting()) {
+                        out.writeByte('R');
+                        writeString(out, "");
+                    } else if (r.rotates()) {
+                        out.writeByte('M');
+                        writeString(out, ((MovingRotor) r).notches());
+                    } else {
+                        out.writeByte('N');
+                        writeString(out, "");
+                    }
+                    writeString(out, r.name());
+                    Permutation perm = r.permutation();
+                    for (int i = 0; i < perm.size(); i += 1) {
+                        out.writeInt(perm.permute(i));
+                    }
+                    for (int i = 0; i < perm.size(); i += 1) {
+                        out.writeInt(perm.invert(i));
+                    }
+                }
+                out.flush();
+                out.writeInt((int) crc.getValue());
+            }
+            Files.move(temp, image, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not write %s", image);
+        }
+    }
+
+    /** Return the configuration saved in IMAGE, or null if IMAGE is
+     *  missing, is not a current image of the text configuration
+     *  SOURCE, or is damaged. */
+    static ConfigImage read(Path image, Path source) {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(image)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              channel.size());
+            if (buf.limit() < HEADER_SIZE + 4
+                || buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || buf.getLong() != Files.size(source)
+                || buf.getLong()
+                   != Files.getLastModifiedTime(source).toMillis()) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buf.duplicate();
+        body.position(0).limit(buf.limit() - 4);
+        crc.update(body);
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) {
+            return null;
+        }
+        try {
+            int numRotors = buf.getInt(), pawls = buf.getInt();
+            Alphabet alpha = new Alphabet(readString(buf));
+            int size = alpha.size();
+            int count = buf.getInt();
+            List<Rotor> rotors = new ArrayList<>();
+            for (int k = 0; k < count; k += 1) {
+                byte kind = buf.get();
+                String notches = readString(buf);
+                String name = readString(buf);
+                int[] forward = new int[size], inverse = new int[size];
+                buf.asIntBuffer().get(forward).get(inverse);
+                buf.position(buf.position() + 8 * size);
+                Permutation perm = new Permutation(alpha, forward, inverse);
+                switch (kind) {
+                case 'R':
+                    rotors.add(new Reflector(name, perm));
+                    break;
+                case 'M':
+                    rotors.add(new MovingRotor(name, perm, notches));
+                    break;
+                case 'N':
+                    rotors.add(new FixedRotor(name, perm));
+                    break;
+                default:
+                    return null;
+                }
+            }
+            if (buf.position() != buf.limit() - 4) {
+                return null;
+            }
+            return new ConfigImage(alpha, numRotors, pawls, rotors);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | EnigmaException excp) {
+            return null;
+        }
+    }
+
+    /** Write S to OUT as its length followed by its chars. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return a string read from BUF as written by writeString. */
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining() / 2) {
+            throw new BufferUnderflowException();
+        }
+        char[] result = new char[len];
+        buf.asCharBuffer().get(result);
+        buf.position(buf.position() + 2 * len);
+        return new String(result);
+    }
+
+    /** First int of every image: "ENIG". */
+    private static final int MAGIC = 0x454e4947;
+
+    /** Format version, changed whenever the layout changes. */
+    static final int VERSION = 1;
+
+    /** Bytes before the number of slots. */
+    private static final int HEADER_SIZE = 24;
+
+    /** Alphabet of the configuration. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Available rotors. */
+    private final List<Rotor> _rotors;
+
+}
@@ -0,0 +1,116 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author Heming Wu
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Rotors used for the test messages. */
+    private static final String[] ROTORS = { "B", "Beta", "III", "IV", "I" };
+
+    /** Test message. */
+    private static final String MSG = "FROMHISSHOULDERHIAWATHA";
+
+    /** Return a new text configuration file, which is written but not
+     *  parsed by these tests. */
+    private Path source() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path result = dir.resolve("naval.conf");
+        Files.write(result, "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3\n".getBytes());
+        dir.toFile().deleteOnExit();
+        result.toFile().deleteOnExit();
+        ConfigImage.imageFor(result).toFile().deleteOnExit();
+        return result;
+    }
+
+    /** Return the naval configuration. */
+    private ConfigImage naval() {
+        return new ConfigImage(UPPER, 5, 3, navalRotors());
+    }
+
+    /** Return MSG converted by a machine built from CONFIG. */
+    private String convert(ConfigImage config) {
+        Machine m = new Machine(config.alphabet(), config.numRotors(),
+                                config.pawls(), config.rotors());
+        m.insertRotors(ROTORS);
+        m.setRotors("AXLE", "BCDE");
+        m.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                       config.alphabet()));
+        return m.convert(MSG);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Path src = source(), img = ConfigImage.imageFor(src);
+        assertEquals("naval.conf.img", img.getFileName().toString());
+        naval().write(img, src);
+        ConfigImage loaded = ConfigImage.read(img, src);
+        assertNotNull(loaded);
+        assertEquals(5, loaded.numRotors());
+        assertEquals(3, loaded.pawls());
+        assertEquals(UPPER_STRING, loaded.alphabet().chars());
+        assertEquals(navalRotors().size(), loaded.rotors().size());
+        for (int i = 0; i < loaded.rotors().size(); i += 1) {
+            Rotor r = navalRotors().get(i), s = loaded.rotors().get(i);
+            assertEquals(r.name(), s.name());
+            assertEquals(r.rotates(), s.rotates());
+            assertEquals(r.reflecting(), s.reflecting());
+        }
+        assertEquals(convert(naval()), convert(loaded));
+    }
+
+    @Test
+    public void checkMissing() throws IOException {
+        Path src = source();
+        assertNull(ConfigImage.read(ConfigImage.imageFor(src), src));
+    }
+
+    @Test
+    public void checkStale() throws IOException {
+        Path src = source(), img = ConfigImage.imageFor(src);
+        naval().write(img, src);
+        Files.setLastModifiedTime(src, FileTime.fromMillis(
+            Files.getLastModifiedTime(src).toMillis() + 2000));
+        assertNull(ConfigImage.read(img, src));
+        naval().write(img, src);
+        Files.write(src, "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3 \n".getBytes());
+        assertNull(ConfigImage.read(img, src));
+    }
+
+    @Test
+    public void checkDamaged() throws IOException {
+        Path src = source(), img = ConfigImage.imageFor(src);
+        naval().write(img, src);
+        byte[] bytes = Files.readAllBytes(img);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(img, bytes);
+        assertNull(ConfigImage.read(img, src));
+        naval().write(img, src);
+        bytes = Files.readAllBytes(img);
+        byte[] cut = new byte[bytes.length - 9];
+        System.arraycopy(bytes, 0, cut, 0, cut.length);
+        Files.write(img, cut);
+        assertNull(ConfigImage.read(img, src));
+    }
+
+}
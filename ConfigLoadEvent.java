@@ -0,0 +1,30 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Flight Recorder event covering the loading of a machine
+ *  configuration by Main.
+ *  @author Heming Wu
+ */
+@Name("enigma.ConfigLoad")
+@Label("Enigma Configuration Load")
+@Category("Enigma")
+@Description("Loading of a machine configuration")
+class ConfigLoadEvent extends jdk.jfr.Event {
+
+    /** The configuration file. */
+    @Label("Path")
+    String path;
+
+    /** True iff the configuration came from its compiled image. */
+    @Label("From Image")
+    boolean fromImage;
+
+    /** Number of rotors available. */
+    @Label("Rotors")
+    int rotors;
+
+}
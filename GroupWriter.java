@@ -0,0 +1,212 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static enigma.EnigmaException.*;
+
+/** Writes converted messages in groups of characters separated by
+ *  blanks, one output line per message line.  Output is collected in a
+ *  reusable buffer and handed to the underlying Writer or channel in
+ *  large blocks, so writing allocates nothing.
+ *  @author Heming Wu
+ */
+class GroupWriter {
+
+    /** A GroupWriter sending its output to OUT, in groups of GROUP
+     *  characters, starting a new line rather than exceeding WIDTH
+     *  characters per line (0 for no limit). */
+    GroupWriter(Writer out, int group, int width) {
+        this(group, width, out, null);
+    }
+
+    /** A GroupWriter sending its output to OUT as one byte per
+     *  character, which is only correct if every character written and
+     *  the line separator are ASCII.  GROUP and WIDTH are as for the
+     *  other constructor. */
+    GroupWriter(WritableByteChannel out, int group, int width) {
+        this(group, width, null, out);
+    }
+
+    /** A GroupWriter with group size GROUP and line width WIDTH, writing
+     *  characters to WRITER if it is not null and bytes to CHANNEL
+     *  otherwise. */
+    private GroupWriter(int group, int width, Writer writer,
+                        WritableByteChannel channel) {
+        if (group <= 0 || width < 0 || (width > 0 && width < group)) {
+            throw error("bad group size or line width");
+        }
+        _writer = writer;
+        _channel = channel;
+        _buffer = writer == null ? null : new char[BUFFER_SIZE];
+        _bytes = writer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE)
+            : null;
+        _group = group;
+        _width = width;
+    }
+
+    /** Write the LEN characters of MSG starting at OFF, continuing the
+     *  current message line.  Only for a GroupWriter on a Writer. */
+    void write(char[] msg, int off, int len) {
+        while (len > 0) {
+            startGroup();
+            if (_len == _buffer.length) {
+                flush();
+            }
+            int n = Math.min(Math.min(len, _group - _inGroup),
+                             _buffer.length - _len);
+            System.arraycopy(msg, off, _buffer, _len, n);
+            _len += n;
+            advance(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Convert the remaining bytes of MSG with ENIGMA, as for
+     *  Machine.convert(ByteBuffer, ByteBuffer), straight into my output
+     *  buffer, continuing the current message line.  Advances MSG's
+     *  position to its limit.  Only for a GroupWriter on a channel. */
+    void write(ByteBuffer msg, Machine enigma) {
+        int limit = msg.limit();
+        try {
+            while (msg.hasRemaining()) {
+                startGroup();
+                if (!_bytes.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(Math.min(msg.remaining(),
+                                          _group - _inGroup),
+                                 _bytes.remaining());
+                msg.limit(msg.position() + n);
+                enigma.convert(msg, _bytes);
+                msg.limit(limit);
+                advance(n);
+            }
+        } finally {
+            msg.limit(limit);
+        }
+    }
+
+    /** End the current message line. */
+    void endLine() {
+        separator();
+        _inGroup = 0;
+        _lineStarted = false;
+        _lineLen = 0;
+    }
+
+    /** Continue, at the start of an output line, a message line of which
+     *  COLUMN characters have already been written. */
+    void continueLine(long column) {
+        _inGroup = (int) (column % _group);
+        _lineStarted = column > 0;
+        _lineLen = 0;
+    }
+
+    /** Write out everything buffered so far. */
+    void flush() {
+        try {
+            if (_writer != null) {
+                _writer.write(_buffer, 0, _len);
+                _writer.flush();
+                _len = 0;
+            } else {
+                _bytes.flip();
+                while (_bytes.hasRemaining()) {
+                    _channel.write(_bytes);
+                }
+                _bytes.clear();
+            }
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+    }
+
+    /** Separate the group about to be written from the one before, if
+     *  it starts a group and the line has begun. */
+    private void startGroup() {
+        if (_inGroup == 0 && _lineStarted) {
+            if (_width > 0 && _lineLen + 1 + _group > _width) {
+                separator();
+                _lineLen = 0;
+            } else {
+                put(' ');
+                _lineLen += 1;
+            }
+        }
+    }
+
+    /** Note that N message characters, no more than finish the current
+     *  group, have been buffered. */
+    private void advance(int n) {
+        _lineLen += n;
+        _inGroup = _inGroup + n == _group ? 0 : _inGroup + n;
+        _lineStarted = true;
+    }
+
+    /** Buffer the line separator. */
+    private void separator() {
+        for (int i = 0; i < LINE_SEPARATOR.length(); i += 1) {
+            put(LINE_SEPARATOR.charAt(i));
+        }
+    }
+
+    /** Buffer C. */
+    private void put(char c) {
+        if (_writer == null) {
+            if (!_bytes.hasRemaining()) {
+                flush();
+            }
+            _bytes.put((byte) c);
+            return;
+        }
+        if (_len == _buffer.length) {
+            flush();
+        }
+        _buffer[_len++] = c;
+    }
+
+    /** Line separator used in the output. */
+    static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Characters per group. */
+    private final int _group;
+
+    /** Maximum characters per output line, or 0 for no limit. */
+    private final int _width;
+
+    /** Destination of character output, or null. */
+    private final Writer _writer;
+
+    /** Destination of byte output, used iff _writer is null. */
+    private final WritableByteChannel _channel;
+
+    /** Character output waiting to be written, or null. */
+    private final char[] _buffer;
+
+    /** Number of characters in _buffer. */
+    private int _len;
+
+    /** Byte output waiting to be written, in write mode, or null. */
+    private final ByteBuffer _bytes;
+
+    /** Message characters written in the current group, which is only
+     *  counted modulo the group size, so that lines of any length are
+     *  grouped correctly. */
+    private int _inGroup;
+
+    /** True iff a message character has been written on the current
+     *  message line. */
+    private boolean _lineStarted;
+
+    /** Characters written on the current output line; only used, and
+     *  so only bounded, when _width is positive. */
+    private long _lineLen;
+
+}
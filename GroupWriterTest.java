@@ -0,0 +1,141 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the GroupWriter class.
+ *  @author Heming Wu
+ */
+public class GroupWriterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Line separator. */
+    private static final String NL = GroupWriter.LINE_SEPARATOR;
+
+    /** Return the output of a GroupWriter with group size GROUP and line
+     *  width WIDTH given the message lines LINES, each written in pieces
+     *  of at most PIECE characters. */
+    private String format(int group, int width, int piece, String... lines) {
+        StringWriter result = new StringWriter();
+        GroupWriter out = new GroupWriter(result, group, width);
+        for (String line : lines) {
+            char[] chars = line.toCharArray();
+            for (int k = 0; k < chars.length; k += piece) {
+                out.write(chars, k, Math.min(piece, chars.length - k));
+            }
+            out.endLine();
+        }
+        out.flush();
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkGroupsOfFive() {
+        String expected = "ABCDE FGHIJ K" + NL + NL + "ABCDE" + NL
+            + "ABCDE FGHIJ" + NL;
+        for (int piece = 1; piece < 12; piece += 1) {
+            assertEquals(expected, format(5, 0, piece, "ABCDEFGHIJK", "",
+                                          "ABCDE", "ABCDEFGHIJ"));
+        }
+    }
+
+    @Test
+    public void checkGroupAndWidth() {
+        assertEquals("ABC DEF" + NL + "GHI J" + NL,
+                     format(3, 8, 4, "ABCDEFGHIJ"));
+        assertEquals("AB CD" + NL + "EF" + NL,
+                     format(2, 5, 100, "ABCDEF"));
+    }
+
+    @Test
+    public void checkLongLine() {
+        StringBuilder line = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; i += 1) {
+            char c = (char) ('A' + i % 26);
+            if (i > 0 && i % 5 == 0) {
+                expected.append(' ');
+            }
+            line.append(c);
+            expected.append(c);
+        }
+        expected.append(NL);
+        assertEquals(expected.toString(),
+                     format(5, 0, 7777, line.toString()));
+    }
+
+    @Test
+    public void checkBytesFromMachine() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        String[] order = { "B", "Beta", "III", "IV", "I" };
+        byte[] bytes = msg.getBytes(StandardCharsets.US_ASCII);
+        int[][] shapes = { { 5, 0 }, { 3, 8 }, { 4, 13 }, { 1, 0 } };
+        for (int[] shape : shapes) {
+            for (int piece = 1; piece < 12; piece += 5) {
+                Machine m = navalMachine(3, order, "AXLE", "", "(HQ) (EX)");
+                String expected = format(shape[0], shape[1], piece,
+                                         m.convert(msg), m.convert(msg));
+                m = navalMachine(3, order, "AXLE", "", "(HQ) (EX)");
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                GroupWriter out =
+                    new GroupWriter(Channels.newChannel(result), shape[0],
+                                    shape[1]);
+                for (int line = 0; line < 2; line += 1) {
+                    for (int k = 0; k < bytes.length; k += piece) {
+                        ByteBuffer in = ByteBuffer.wrap(bytes, k,
+                            Math.min(piece, bytes.length - k));
+                        out.write(in, m);
+                        assertFalse(in.hasRemaining());
+                    }
+                    out.endLine();
+                }
+                out.flush();
+                assertEquals(expected,
+                             result.toString(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    @Test
+    public void checkPastIntegerRange() {
+        for (long column : new long[] { Integer.MAX_VALUE - 2,
+                                        Integer.MAX_VALUE,
+                                        3L << 31 }) {
+            StringWriter result = new StringWriter();
+            GroupWriter out = new GroupWriter(result, 5, 0);
+            out.continueLine(column);
+            char[] chars = "ABCDEFGHIJKLMNOPQRST".toCharArray();
+            for (int k = 0; k < chars.length; k += 3) {
+                out.write(chars, k, Math.min(3, chars.length - k));
+            }
+            out.endLine();
+            out.flush();
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < chars.length; i += 1) {
+                if ((column + i) % 5 == 0) {
+                    expected.append(' ');
+                }
+                expected.append(chars[i]);
+            }
+            assertEquals(expected + NL, result.toString());
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** Scores text by its index of coincidence: the probability that two
+ *  characters drawn from different positions are the same.  This is
+ *  about 1/size() for random text and markedly higher for natural
+ *  language, and needs no statistics of the expected plaintext.
+ *  @author Heming Wu
+ */
+class IndexOfCoincidence implements Scorer {
+
+    /** A scorer for text over an alphabet of SIZE characters. */
+    IndexOfCoincidence(int size) {
+        _counts = ThreadLocal.withInitial(() -> new int[size]);
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        if (len < 2) {
+            return 0.0;
+        }
+        int[] counts = _counts.get();
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < len; i += 1) {
+            counts[text[i]] += 1;
+        }
+        long pairs = 0;
+        for (int n : counts) {
+            pairs += (long) n * (n - 1);
+        }
+        return (double) pairs / ((long) len * (len - 1));
+    }
+
+    /** Letter counts, one array per thread so that scoring allocates
+     *  nothing. */
+    private final ThreadLocal<int[]> _counts;
+
+}
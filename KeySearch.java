@@ -0,0 +1,463 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for the key of an Enigma machine.  Every
+ *  choice of reflector, rotor order and start position (and, if asked,
+ *  ring settings of the rightmost rotors) that can be built from a
+ *  rotor library is tried: the ciphertext is decrypted and the result
+ *  scored, and the best-scoring keys are kept.  The work is shared
+ *  between threads, each of which has its own machine; the machines
+ *  share the rotors themselves, which they do not change.
+ *  @author Heming Wu
+ */
+class KeySearch {
+
+    /** A search over machines with alphabet ALPHA, NUMROTORS rotor slots
+     *  and PAWLS pawls, using the rotors in ALLROTORS.  As in the
+     *  configurations read by Main, the leftmost slot holds a
+     *  reflector, the rightmost PAWLS slots hold moving rotors and the
+     *  others hold non-moving rotors. */
+    KeySearch(Alphabet alpha, int numRotors, int pawls,
+              Collection<Rotor> allRotors) {
+        Machine.checkShape(numRotors, pawls);
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _allRotors = new ArrayList<>(allRotors);
+
+        _orders = orders(allRotors, numRotors, pawls);
+        if (_orders.isEmpty()) {
+            throw error("rotor library cannot fill the machine");
+        }
+        _plugboard = new Permutation("", alpha);
+    }
+
+    /** Return every sequence of names of rotors in ALLROTORS that fills
+     *  a machine with NUMROTORS slots and PAWLS pawls: a reflector,
+     *  then distinct non-moving rotors, then PAWLS distinct moving
+     *  rotors. */
+    static List<String[]> orders(Collection<Rotor> allRotors,
+                                 int numRotors, int pawls) {
+        List<String> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor r : allRotors) {
+            if (r.reflecting()) {
+                reflectors.add(r.name());
+            } else if (r.rotates()) {
+                moving.add(r.name());
+            } else {
+                fixed.add(r.name());
+            }
+        }
+        List<String[]> fixedOrders = new ArrayList<>(),
+            movingOrders = new ArrayList<>(), result = new ArrayList<>();
+        arrangements(fixed, numRotors - 1 - pawls, new ArrayList<>(),
+                     fixedOrders);
+        arrangements(moving, pawls, new ArrayList<>(), movingOrders);
+        for (String reflector : reflectors) {
+            for (String[] left : fixedOrders) {
+                for (String[] right : movingOrders) {
+                    String[] order = new String[numRotors];
+                    order[0] = reflector;
+                    System.arraycopy(left, 0, order, 1, left.length);
+                    System.arraycopy(right, 0, order, 1 + left.length,
+                                     right.length);
+                    result.add(order);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Also try every ring setting of the rightmost SLOTS rotors (0 by
+     *  default, meaning all ring settings are the first character). */
+    void setRingSlots(int slots) {
+        if (slots < 0 || slots >= _numRotors) {
+            throw error("bad number of ring slots");
+        }
+        _ringSlots = slots;
+    }
+
+    /** Decrypt with plugboard PLUGBOARD (initially the identity). */
+    void setPlugboard(Permutation plugboard) {
+        _plugboard = plugboard;
+    }
+
+    /** Search with THREADS threads (initially the number of available
+     *  processors). */
+    void setParallelism(int threads) {
+        if (threads < 1) {
+            throw error("parallelism must be positive");
+        }
+        _threads = threads;
+    }
+
+    /** Report progress to MONITOR about every INTERVAL milliseconds, or
+     *  not at all if MONITOR is null. */
+    void setMonitor(Monitor monitor, long interval) {
+        _monitor = monitor;
+        _interval = Math.max(1, interval);
+    }
+
+    /** Stop the current search as soon as possible.  Its results are
+     *  the best keys found so far. */
+    void cancel() {
+        _cancelled = true;
+    }
+
+    /** Return the number of keys a search tries. */
+    long keyCount() {
+        long result = _orders.size() * ringCombinations();
+        for (int i = 1; i < _numRotors; i += 1) {
+            result *= _alphabet.size();
+        }
+        return result;
+    }
+
+    /** Return the TOP keys that give the highest-scoring decryptions of
+     *  CIPHERTEXT according to SCORER, best first.  Whitespace in
+     *  CIPHERTEXT is ignored. */
+    List<Result> search(String ciphertext, Scorer scorer, int top) {
+        int[] cipher = indices(ciphertext);
+        if (top < 1) {
+            throw error("must keep at least one result");
+        }
+        _cancelled = false;
+        _nextUnit.set(0);
+        _tried.set(0);
+        _best = null;
+
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        List<Future<PriorityQueue<Result>>> workers = new ArrayList<>();
+        for (int i = 0; i < _threads; i += 1) {
+            workers.add(pool.submit(() -> work(cipher, scorer, top)));
+        }
+        pool.shutdown();
+        long start = System.nanoTime();
+        try {
+            while (!pool.awaitTermination(_interval, TimeUnit.MILLISECONDS)) {
+                if (_monitor != null) {
+                    long tried = _tried.get();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    if (!_monitor.progress(tried, keyCount(),
+                                           tried / seconds, _best)) {
+                        _cancelled = true;
+                    }
+                }
+            }
+            PriorityQueue<Result> best = new PriorityQueue<>();
+            for (Future<PriorityQueue<Result>> worker : workers) {
+                for (Result r : worker.get()) {
+                    keep(best, r, top);
+                }
+            }
+            List<Result> result = new ArrayList<>(best);
+            result.sort(null);
+            Collections.reverse(result);
+            return result;
+        } catch (InterruptedException excp) {
+            _cancelled = true;
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw error("key search interrupted");
+        } catch (ExecutionException excp) {
+            _cancelled = true;
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("key search failed: %s", excp.getCause());
+        }
+    }
+
+    /** Try rotor orders and ring settings taken from _nextUnit until
+     *  there are none left or the search is cancelled, decrypting
+     *  CIPHER at every start position.  Return the TOP best keys found
+     *  according to SCORER. */
+    private PriorityQueue<Result> work(int[] cipher, Scorer scorer,
+                                       int top) {
+        Machine machine =
+            new Machine(_alphabet, _numRotors, _pawls, _allRotors);
+        machine.setPlugboard(_plugboard);
+        PriorityQueue<Result> best = new PriorityQueue<>();
+        int size = _alphabet.size();
+        int[] plain = new int[cipher.length];
+        int[] pos = new int[_numRotors];
+        char[] first = new char[_numRotors - 1];
+        Arrays.fill(first, _alphabet.toChar(0));
+        long ringCount = ringCombinations();
+        long units = _orders.size() * ringCount;
+        long pending = 0;
+
+        for (long unit = _nextUnit.getAndIncrement();
+             unit < units && !_cancelled;
+             unit = _nextUnit.getAndIncrement()) {
+            String[] order = _orders.get((int) (unit / ringCount));
+            String rings = rings(unit % ringCount);
+            machine.insertRotors(order);
+            machine.setRotors(new String(first), rings);
+            Arrays.fill(pos, 0);
+            do {
+                machine.setPositions(pos);
+                for (int i = 0; i < cipher.length; i += 1) {
+                    plain[i] = machine.convert(cipher[i]);
+                }
+                double score = scorer.score(plain, plain.length);
+                if (best.size() < top || score > best.peek().score()) {
+                    Result r = new Result(order, setting(pos), rings, score);
+                    keep(best, r, top);
+                    offer(r);
+                }
+                pending += 1;
+                if (pending == PROGRESS_BATCH) {
+                    _tried.addAndGet(pending);
+                    pending = 0;
+                    if (_cancelled) {
+                        break;
+                    }
+                }
+            } while (next(pos, size));
+        }
+        _tried.addAndGet(pending);
+        return best;
+    }
+
+    /** Return the number of combinations of ring settings tried for each
+     *  rotor order. */
+    private long ringCombinations() {
+        long result = 1;
+        for (int i = 0; i < _ringSlots; i += 1) {
+            result *= _alphabet.size();
+        }
+        return result;
+    }
+
+    /** Return the ring settings string for combination number K, or the
+     *  empty string if ring settings are not searched. */
+    private String rings(long k) {
+        if (_ringSlots == 0) {
+            return "";
+        }
+        char[] result = new char[_numRotors - 1];
+        Arrays.fill(result, _alphabet.toChar(0));
+        for (int i = result.length - 1; i >= result.length - _ringSlots;
+             i -= 1) {
+            result[i] = _alphabet.toChar((int) (k % _alphabet.size()));
+            k /= _alphabet.size();
+        }
+        return new String(result);
+    }
+
+    /** Return the settings string for rotor settings POS. */
+    private String setting(int[] pos) {
+        char[] result = new char[pos.length - 1];
+        for (int i = 1; i < pos.length; i += 1) {
+            result[i - 1] = _alphabet.toChar(pos[i]);
+        }
+        return new String(result);
+    }
+
+    /** Advance POS[1 ..] to the next combination of settings in an
+     *  alphabet of SIZE characters, rightmost slot fastest.  Return false
+     *  if POS was the last combination (and is now all 0). */
+    private static boolean next(int[] pos, int size) {
+        for (int i = pos.length - 1; i > 0; i -= 1) {
+            pos[i] += 1;
+            if (pos[i] < size) {
+                return true;
+            }
+            pos[i] = 0;
+        }
+        return false;
+    }
+
+    /** Add R to BEST, then drop its lowest-scoring entry if it has more
+     *  than TOP. */
+    private static void keep(PriorityQueue<Result> best, Result r, int top) {
+        best.add(r);
+        if (best.size() > top) {
+            best.poll();
+        }
+    }
+
+    /** Make R the best result so far if it is. */
+    private synchronized void offer(Result r) {
+        if (_best == null || r.score() > _best.score()) {
+            _best = r;
+        }
+    }
+
+    /** Add to RESULT every sequence of N distinct names from NAMES that
+     *  extends PREFIX. */
+    private static void arrangements(List<String> names, int n,
+                                     List<String> prefix,
+                                     List<String[]> result) {
+        if (prefix.size() == n) {
+            result.add(prefix.toArray(new String[n]));
+            return;
+        }
+        for (String name : names) {
+            if (!prefix.contains(name)) {
+                prefix.add(name);
+                arrangements(names, n, prefix, result);
+                prefix.remove(prefix.size() - 1);
+            }
+        }
+    }
+
+    /** Return the indices of the characters of TEXT in my alphabet,
+     *  skipping whitespace. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            result[n] = _alphabet.toInt(c);
+            if (result[n] < 0) {
+                throw error("Letter(s) not in alphabet");
+            }
+            n += 1;
+        }
+        if (n == 0) {
+            throw error("empty ciphertext");
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Receives progress reports during a search. */
+    interface Monitor {
+
+        /** Report that TRIED of TOTAL keys have been tried, at
+         *  KEYSPERSECOND, and that BEST (null if none yet) is the best
+         *  key so far.  Return false to stop the search. */
+        boolean progress(long tried, long total, double keysPerSecond,
+                         Result best);
+    }
+
+    /** One key found by a search, with the score of its decryption.
+     *  Results order by score. */
+    static final class Result implements Comparable<Result> {
+
+        /** A key with rotors ROTORS (reflector first), rotor settings
+         *  SETTING and ring settings RINGS (possibly empty), whose
+         *  decryption scored SCORE. */
+        Result(String[] rotors, String setting, String rings, double score) {
+            _rotors = rotors.clone();
+            _setting = setting;
+            _rings = rings;
+            _score = score;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return my rotor settings. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return my ring settings, or the empty string if they were not
+         *  searched. */
+        String rings() {
+            return _rings;
+        }
+
+        /** Return the score of my decryption. */
+        double score() {
+            return _score;
+        }
+
+        @Override
+        public int compareTo(Result other) {
+            return Double.compare(_score, other._score);
+        }
+
+        /** Return my key as a settings line for Main, without a
+         *  plugboard. */
+        @Override
+        public String toString() {
+            String result = "* " + String.join(" ", _rotors) + " " + _setting;
+            if (!_rings.isEmpty()) {
+                result += " " + _rings;
+            }
+            return result;
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _rotors;
+
+        /** Rotor settings. */
+        private final String _setting;
+
+        /** Ring settings, or empty. */
+        private final String _rings;
+
+        /** Score of the decryption. */
+        private final double _score;
+    }
+
+    /** Keys tried between updates of the shared progress count. */
+    private static final int PROGRESS_BATCH = 1 << 12;
+
+    /** Alphabet of the machines searched. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** The rotor library, shared by the threads' machines. */
+    private final List<Rotor> _allRotors;
+
+    /** Every rotor order tried, reflector first. */
+    private final List<String[]> _orders;
+
+    /** Number of rightmost rotors whose ring settings are searched. */
+    private int _ringSlots;
+
+    /** Plugboard used for decryption. */
+    private Permutation _plugboard;
+
+    /** Number of threads. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /** Receiver of progress reports, or null. */
+    private Monitor _monitor;
+
+    /** Milliseconds between progress reports. */
+    private long _interval = 1000;
+
+    /** Index of the next combination of rotor order and ring settings
+     *  to be taken by a thread. */
+    private final AtomicLong _nextUnit = new AtomicLong();
+
+    /** Keys tried so far, updated in batches. */
+    private final AtomicLong _tried = new AtomicLong();
+
+    /** True iff the current search should stop. */
+    private volatile boolean _cancelled;
+
+    /** Best key found so far in the current search, or null. */
+    private volatile Result _best;
+
+}
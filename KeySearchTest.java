@@ -0,0 +1,151 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for KeySearch and its scorers.
+ *  @author Heming Wu
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plaintext used for the searches. */
+    private static final String PLAIN =
+        "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDTHENRANINTOTHEWOODS"
+        + "WHERETHEHUNTERSWEREWAITINGFORTHEMORNINGTOCOMEANDTHESUNTORISE"
+        + "OVERTHEHILLSTOTHEEASTOFTHERIVER";
+
+    /** Return a search over library() for a four-slot, two-pawl machine. */
+    private KeySearch search() {
+        return new KeySearch(UPPER, 4, 2, library());
+    }
+
+    /** Return PLAIN encrypted with rotors ROTORS at SETTING and RINGS. */
+    private String encrypt(String[] rotors, String setting, String rings) {
+        return navalMachine(2, rotors, setting, rings, "").convert(PLAIN);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkKeyCount() {
+        KeySearch s = search();
+        assertEquals(2 * 6 * 26 * 26 * 26, s.keyCount());
+        s.setRingSlots(1);
+        assertEquals(2 * 6 * 26 * 26 * 26 * 26, s.keyCount());
+    }
+
+    @Test
+    public void checkFindsKey() {
+        String[] rotors = { "C", "Beta", "III", "I" };
+        String cipher = encrypt(rotors, "QMX", "");
+        KeySearch s = search();
+        s.setParallelism(2);
+        List<KeySearch.Result> found =
+            s.search(cipher, new IndexOfCoincidence(26), 5);
+        assertEquals(5, found.size());
+        KeySearch.Result best = found.get(0);
+        assertArrayEquals(rotors, best.rotors());
+        assertEquals("QMX", best.setting());
+        assertEquals("* C Beta III I QMX", best.toString());
+        for (int i = 1; i < found.size(); i += 1) {
+            assertTrue(found.get(i - 1).score() >= found.get(i).score());
+        }
+    }
+
+    @Test
+    public void checkThreadsAgree() {
+        String cipher = encrypt(new String[] { "B", "Beta", "II", "I" },
+                                "AZE", "");
+        KeySearch one = search(), many = search();
+        one.setParallelism(1);
+        many.setParallelism(4);
+        Scorer ioc = new IndexOfCoincidence(26);
+        List<KeySearch.Result> a = one.search(cipher, ioc, 3),
+            b = many.search(cipher, ioc, 3);
+        for (int i = 0; i < a.size(); i += 1) {
+            assertEquals(a.get(i).score(), b.get(i).score(), 0.0);
+        }
+        assertEquals(a.get(0).toString(), b.get(0).toString());
+    }
+
+    @Test
+    public void checkCancel() {
+        KeySearch s = search();
+        s.setRingSlots(2);
+        long[] reported = new long[1];
+        s.setMonitor((tried, total, rate, best) -> {
+            reported[0] = total;
+            return false;
+        }, 1);
+        List<KeySearch.Result> found =
+            s.search(encrypt(new String[] { "B", "Beta", "II", "I" },
+                             "AAA", ""),
+                     new IndexOfCoincidence(26), 1);
+        assertEquals(s.keyCount(), reported[0]);
+        assertTrue(found.size() <= 1);
+    }
+
+    @Test
+    public void checkIndexOfCoincidence() {
+        Scorer ioc = new IndexOfCoincidence(4);
+        assertEquals(1.0, ioc.score(new int[] { 2, 2, 2 }, 3), 1e-12);
+        assertEquals(0.0, ioc.score(new int[] { 0, 1, 2, 3 }, 4), 1e-12);
+        assertEquals(2.0 / 12, ioc.score(new int[] { 0, 0, 1, 2, 9 }, 4),
+                     1e-12);
+    }
+
+    @Test
+    public void checkNGrams() {
+        NGramScorer bigrams =
+            new NGramScorer(UPPER, 2, new StringReader("# counts\nTH 6\n"
+                                                       + "HE 3\n\nAN 1\n"));
+        assertEquals(2, bigrams.length());
+        int[] the = { UPPER.toInt('T'), UPPER.toInt('H'), UPPER.toInt('E') };
+        assertEquals(Math.log10(0.6) + Math.log10(0.3),
+                     bigrams.score(the, 3), 1e-6);
+        assertEquals(0.0, bigrams.score(the, 1), 0.0);
+        int[] rare = { UPPER.toInt('Z'), UPPER.toInt('Q') };
+        assertTrue(bigrams.score(rare, 2) < bigrams.score(the, 2));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadNGrams() {
+        new NGramScorer(UPPER, 2, new StringReader("THE 5\n"));
+    }
+
+    @Test
+    public void checkHugeNGrams() {
+        for (int n : new int[] { 6, 14, 40 }) {
+            try {
+                new NGramScorer(UPPER, n, new StringReader(""));
+                fail("no error for " + n + "-grams");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadShape() {
+        new KeySearch(UPPER, 4, 4, library());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCiphertext() {
+        search().search("ABC1", new IndexOfCoincidence(26), 1);
+    }
+
+}
@@ -0,0 +1,298 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Converts one plaintext under each of a long list of keys.  Keys are
+ *  settings lines, as for Settings (the leading '*' is optional), each
+ *  standing alone: ring settings do not carry over from one key to the
+ *  next.  Keys are read and converted in blocks.  Each block is
+ *  converted by a Batch, which keeps the keys' states in primitive
+ *  arrays and steps them together, on one of a pool of threads, each
+ *  with its own machine; the machines share their rotors.  Results are
+ *  written in the order of the keys, and only a few blocks are held at
+ *  once, so any number of keys may be swept.
+ *  @author Heming Wu
+ */
+class KeySweep {
+
+    /** A sweep converting PLAINTEXT with machines configured as CONFIG.
+     *  PLAINTEXT is read as message lines are by Main: the blanks in
+     *  each line are ignored, any other character must be in the
+     *  alphabet, and each line is converted to an output line, the
+     *  machine carrying on from one line to the next. */
+    KeySweep(ConfigImage config, String plaintext) {
+        _config = config;
+        StringBuilder letters = new StringBuilder();
+        int[] ends = new int[16];
+        int lines = 0;
+        boolean afterCR = false, lineOpen = false, blank = true;
+        for (int i = 0; i < plaintext.length(); i += 1) {
+            char c = plaintext.charAt(i);
+            if (afterCR && c == '\n') {
+                afterCR = false;
+                continue;
+            }
+            afterCR = c == '\r';
+            lineOpen = !Main.isLineEnd(c);
+            if (!lineOpen) {
+                if (lines == ends.length) {
+                    ends = Arrays.copyOf(ends, 2 * lines);
+                }
+                ends[lines++] = letters.length();
+                blank = true;
+            } else if (c == '*' && blank) {
+                throw error("the plaintext may not contain settings lines");
+            } else if (c != ' ') {
+                letters.append(c);
+                blank = false;
+            }
+        }
+        if (lineOpen) {
+            ends = Arrays.copyOf(ends, lines + 1);
+            ends[lines++] = letters.length();
+        }
+        _lineEnds = Arrays.copyOf(ends, lines);
+        _text = new Batch(config.machine()).indices(letters.toString());
+    }
+
+    /** Convert blocks on THREADS threads. */
+    void setParallelism(int threads) {
+        if (threads < 1) {
+            throw error("parallelism must be positive");
+        }
+        _threads = threads;
+    }
+
+    /** Count keys applied, characters converted, rotor movements and
+     *  message lines, with their lengths, in METRICS, or nothing if
+     *  METRICS is null.  Applies to runs started from now on. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Read and convert up to KEYS keys at a time.  Blocks hold fewer
+     *  keys when the plaintext is long, so that their results fit in
+     *  about BLOCK_CHARS characters. */
+    void setBlockSize(int keys) {
+        if (keys < 1) {
+            throw error("block size must be positive");
+        }
+        _blockSize = keys;
+    }
+
+    /** Return the number of keys swept by the last run. */
+    long keys() {
+        return _keys;
+    }
+
+    /** Write the conversion of my plaintext under each key read from
+     *  KEYS, one per non-blank line, to OUT, as Main would write the
+     *  plaintext's message lines after that key's settings line. */
+    void run(Reader keys, GroupWriter out) {
+        BufferedReader in = new BufferedReader(keys);
+        _keys = 0;
+        _perBlock = Math.max(1, Math.min(_blockSize,
+            BLOCK_CHARS / Math.max(1, _text.length)));
+        if (_threads == 1) {
+            Worker worker = new Worker();
+            Block block = new Block();
+            while (block.fill(in)) {
+                worker.convert(block);
+                block.write(out);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        ArrayDeque<Block> free = new ArrayDeque<>();
+        try {
+            while (true) {
+                if (pending.size() == 2 * _threads) {
+                    Block done = pending.remove().get();
+                    done.write(out);
+                    free.add(done);
+                }
+                Block block = free.isEmpty() ? new Block() : free.remove();
+                if (!block.fill(in)) {
+                    break;
+                }
+                pending.add(pool.submit(() -> {
+                    workers.get().convert(block);
+                    return block;
+                }));
+            }
+            while (!pending.isEmpty()) {
+                pending.remove().get().write(out);
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("key sweep interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("key sweep failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** A block of keys and, once converted, their results. */
+    private final class Block {
+
+        /** Read up to _perBlock keys from IN into me, replacing any
+         *  earlier contents.  Return false iff there were none left. */
+        boolean fill(BufferedReader in) {
+            _count = 0;
+            int len = 0;
+            try {
+                while (_count < _perBlock) {
+                    String line = in.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    if (len + line.length() > _chars.length) {
+                        _chars = Arrays.copyOf(_chars,
+                            Math.max(2 * _chars.length, len + line.length()));
+                    }
+                    line.getChars(0, line.length(), _chars, len);
+                    len += line.length();
+                    _ends[_count++] = len;
+                }
+            } catch (IOException excp) {
+                throw error("could not read keys");
+            }
+            _keys += _count;
+            return _count > 0;
+        }
+
+        /** Write my results to OUT, one line per plaintext line for each
+         *  key. */
+        void write(GroupWriter out) {
+            int len = _text.length;
+            for (int k = 0; k < _count; k += 1) {
+                for (int i = 0, start = 0; i < _lineEnds.length; i += 1) {
+                    out.write(_results, k * len + start,
+                              _lineEnds[i] - start);
+                    out.endLine();
+                    start = _lineEnds[i];
+                }
+            }
+        }
+
+        /** Number of keys held. */
+        private int _count;
+
+        /** The text of the keys, one after another. */
+        private char[] _chars = new char[64 * _perBlock];
+
+        /** The end of each key in _chars. */
+        private final int[] _ends = new int[_perBlock];
+
+        /** The conversion under each key, one after another. */
+        private final char[] _results = new char[_perBlock * _text.length];
+    }
+
+    /** The machine, settings parser and batch used by one thread. */
+    private final class Worker {
+
+        /** Fill in the results of BLOCK. */
+        void convert(Block block) {
+            _batch.clear();
+            for (int k = 0, start = 0; k < block._count; k += 1) {
+                int len = block._ends[k] - start;
+                if (len > _line.length) {
+                    _line = new char[len];
+                }
+                System.arraycopy(block._chars, start, _line, 0, len);
+                _settings.clearRings();
+                _settings.apply(_line, len);
+                _batch.add(_text);
+                start = block._ends[k];
+            }
+            _batch.run();
+            char[] output = _batch.output();
+            int lanes = block._count, len = _text.length;
+            for (int k = 0; k < lanes; k += 1) {
+                for (int t = 0; t < len; t += 1) {
+                    block._results[k * len + t] = output[t * lanes + k];
+                }
+            }
+            if (_metrics != null) {
+                count(lanes);
+            }
+        }
+
+        /** Count the message lines converted under each of KEYS keys. */
+        private void count(int keys) {
+            for (int i = 0, start = 0; i < _lineEnds.length; i += 1) {
+                int n = _lineEnds[i] - start;
+                if (n > 0) {
+                    _metrics.add(Metrics.Count.MESSAGES, keys);
+                    for (int k = 0; k < keys; k += 1) {
+                        _metrics.record(Metrics.Distribution.MESSAGE_LENGTH,
+                                        n);
+                    }
+                }
+                start = _lineEnds[i];
+            }
+        }
+
+        /** A worker counting in _metrics. */
+        Worker() {
+            _settings.machine().setMetrics(_metrics);
+        }
+
+        /** My machine's settings parser. */
+        private final Settings _settings = new Settings(_config.machine());
+
+        /** Batch converting with my machine. */
+        private final Batch _batch = new Batch(_settings.machine());
+
+        /** Copy of the key being applied, which Settings may change. */
+        private char[] _line = new char[64];
+    }
+
+    /** Approximate number of result characters in each block. */
+    static final int BLOCK_CHARS = 1 << 20;
+
+    /** Configuration of the machines. */
+    private final ConfigImage _config;
+
+    /** The plaintext, without blanks or line ends, as alphabet
+     *  indices. */
+    private final int[] _text;
+
+    /** The end of each plaintext line in _text. */
+    private final int[] _lineEnds;
+
+    /** Number of threads converting blocks. */
+    private int _threads = 1;
+
+    /** Number of keys in each block. */
+    private int _blockSize = 1024;
+
+    /** Number of keys in each block of the present run. */
+    private int _perBlock;
+
+    /** Number of keys read by the last run so far. */
+    private long _keys;
+
+    /** Metrics kept by runs, or null. */
+    private Metrics _metrics;
+
+}
@@ -0,0 +1,155 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySweep class.
+ *  @author Heming Wu
+ */
+public class KeySweepTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Configuration of the naval machine. */
+    private static final ConfigImage NAVAL =
+        new ConfigImage(UPPER, 5, 3, navalRotors());
+
+    /** Plaintext swept. */
+    private static final String PLAIN = "FROM HIS SHOULDER HIAWATHA";
+
+    /** Return the lines written by sweeping PLAIN under KEYS with
+     *  THREADS threads and blocks of BLOCK keys. */
+    private String[] sweep(String keys, int threads, int block) {
+        KeySweep sweep = new KeySweep(NAVAL, PLAIN);
+        sweep.setParallelism(threads);
+        sweep.setBlockSize(block);
+        StringWriter out = new StringWriter();
+        GroupWriter groups = new GroupWriter(out, 1000, 0);
+        sweep.run(new StringReader(keys), groups);
+        groups.flush();
+        return out.toString().split(GroupWriter.LINE_SEPARATOR);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkAgainstMachine() {
+        String[] orders = { "B Beta III IV I", "C Gamma VI VII VIII",
+                            "B Gamma II V IV" };
+        StringBuilder keys = new StringBuilder();
+        String[] expected = new String[200];
+        for (int k = 0; k < expected.length; k += 1) {
+            String setting = "" + UPPER.toChar(k % 26) + "XL"
+                + UPPER.toChar(k * 7 % 26);
+            String rings = k % 3 == 0 ? "" : "AB" + UPPER.toChar(k % 26) + "Z";
+            String plugs = k % 2 == 0 ? "" : "(HQ) (EX) (IP)";
+            String order = orders[k % orders.length];
+            keys.append(k % 4 == 0 ? "* " : "").append(order).append(' ')
+                .append(setting).append(' ').append(rings).append(' ')
+                .append(plugs).append(k % 5 == 0 ? "\n\n" : "\n");
+            Machine m = navalMachine(3, order.split(" "), setting, rings,
+                                     plugs);
+            expected[k] = m.convert(PLAIN.replace(" ", ""));
+        }
+        assertArrayEquals(expected, sweep(keys.toString(), 1, 1024));
+        assertArrayEquals(expected, sweep(keys.toString(), 3, 7));
+    }
+
+    @Test
+    public void checkMetrics() {
+        StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < 30; i += 1) {
+            plain.append(PLAIN).append(i == 10 ? "\n\n" : "\n");
+        }
+        String letters = plain.toString().replaceAll("\\s", "");
+        String[] order = { "B", "Beta", "III", "IV", "I" };
+        StringBuilder keys = new StringBuilder();
+        Metrics expected = new Metrics();
+        for (int k = 0; k < 50; k += 1) {
+            String setting = "A" + UPPER.toChar(k % 26) + "UQ";
+            keys.append("B Beta III IV I ").append(setting).append('\n');
+            Machine m = navalMachine(3, order, setting, "", "");
+            m.setMetrics(expected);
+            m.convert(letters);
+            m.publishMetrics();
+        }
+        for (int threads = 1; threads <= 3; threads += 2) {
+            Metrics counted = new Metrics();
+            KeySweep sweep = new KeySweep(NAVAL, plain.toString());
+            sweep.setParallelism(threads);
+            sweep.setBlockSize(7);
+            sweep.setMetrics(counted);
+            GroupWriter groups = new GroupWriter(new StringWriter(), 5, 0);
+            sweep.run(new StringReader(keys.toString()), groups);
+            Metrics.Snapshot got = counted.snapshot();
+            for (Metrics.Count c : new Metrics.Count[] {
+                    Metrics.Count.CHARACTERS, Metrics.Count.ROTOR_ADVANCES,
+                    Metrics.Count.DOUBLE_STEPS }) {
+                assertEquals(c.toString(), expected.snapshot().count(c),
+                             got.count(c));
+            }
+            assertEquals(50, got.count(Metrics.Count.RECONFIGURATIONS));
+            assertEquals(50 * 30, got.count(Metrics.Count.MESSAGES));
+            assertEquals(50 * 30, got.summary(
+                Metrics.Distribution.MESSAGE_LENGTH).count());
+        }
+    }
+
+    @Test
+    public void checkLines() {
+        String plain = "FROM HIS\r\nSHOULDER\n\n  HIAWATHA \rTOOK";
+        String[] order = { "B", "Beta", "III", "IV", "I" };
+        KeySweep sweep = new KeySweep(NAVAL, plain);
+        StringWriter out = new StringWriter();
+        GroupWriter groups = new GroupWriter(out, 1000, 0);
+        sweep.run(new StringReader("B Beta III IV I AXLE\n"
+                                   + "B Beta III IV I AXLF\n"), groups);
+        groups.flush();
+        StringBuilder expected = new StringBuilder();
+        for (String setting : new String[] { "AXLE", "AXLF" }) {
+            Machine m = navalMachine(3, order, setting, "", "");
+            for (String line : new String[] {
+                    "FROMHIS", "SHOULDER", "", "HIAWATHA", "TOOK" }) {
+                expected.append(m.convert(line))
+                    .append(GroupWriter.LINE_SEPARATOR);
+            }
+        }
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTabInPlaintext() {
+        new KeySweep(NAVAL, "FROM\tHIS");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSettingsInPlaintext() {
+        new KeySweep(NAVAL, "FROM HIS\n * B Beta III IV I AXLE");
+    }
+
+    @Test
+    public void checkKeyCount() {
+        KeySweep sweep = new KeySweep(NAVAL, PLAIN);
+        GroupWriter groups = new GroupWriter(new StringWriter(), 5, 0);
+        sweep.run(new StringReader("B Beta I II III AAAA\n\n"
+                                   + "B Beta I II III AAAB\n"), groups);
+        assertEquals(2, sweep.keys());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadKey() {
+        sweep("B Beta I II III AAAA\nB Beta I II XX AAAA\n", 2, 1);
+    }
+
+}
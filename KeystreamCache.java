@@ -0,0 +1,331 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** Keystreams of recently used keys, shared by any number of machines on
+ *  any number of threads.  Every message under one key (rotors, rotor
+ *  settings, ring settings and plugboard) starts from the same state,
+ *  so the complete substitution performed at each offset into the
+ *  message, and the rotor movements up to it, are the same for all of
+ *  them.  A keystream records these for the first length() offsets,
+ *  after which a machine converts each character by a single lookup.
+ *
+ *  Building a keystream costs about as much as converting one
+ *  character for each letter of the alphabet at each offset, so a key
+ *  is only admitted when it is seen a second time while still among the
+ *  most recently seen keys, and a keystream is only built as far into
+ *  the message as has been needed.  The keystreams kept use about at
+ *  most budget() bytes; the least recently used are discarded beyond
+ *  that.  Machines sharing a cache must be made from the same
+ *  configuration.
+ *  @author Heming Wu
+ */
+class KeystreamCache {
+
+    /** A cache using about at most BUDGET bytes for keystreams covering
+     *  at most LENGTH characters each, or as many as BUDGET can hold if
+     *  that is fewer. */
+    KeystreamCache(long budget, int length) {
+        if (budget <= 0 || length <= 0) {
+            throw error("keystream cache needs a positive budget and length");
+        }
+        _budget = budget;
+        _length = (int) Math.min(length, budget / KEYPRESS_BYTES);
+    }
+
+    /** Return my byte budget. */
+    long budget() {
+        return _budget;
+    }
+
+    /** Return the greatest number of characters a keystream covers. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the greatest number of keypresses that a keystream for
+     *  KEY, over an alphabet of SIZE characters, may cover: at most
+     *  length(), and few enough that the keystream and KEY fit in my
+     *  budget.  Returns 0 if no keystream for KEY fits. */
+    int capacity(Key key, int size) {
+        long fixed = key.bytes() + Keystream.bytes(0, size, key.slots());
+        long perKeypress = 4L * size + 8;
+        if (fixed >= _budget) {
+            return 0;
+        }
+        long result = Math.min(_length, (_budget - fixed) / perKeypress);
+        return (int) Math.min(result, (Integer.MAX_VALUE - 8) / size);
+    }
+
+    /** Return the keystream for KEY, or null if I have none.  Counts a
+     *  hit or a miss. */
+    synchronized Keystream get(Key key) {
+        Keystream result = _streams.get(key);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Return true iff a keystream should be built for KEY, which I do
+     *  not hold: that is, iff KEY was recently seen by admit before. */
+    synchronized boolean admit(Key key) {
+        if (_seen.remove(key) != null) {
+            return true;
+        }
+        _seen.put(key, Boolean.TRUE);
+        return false;
+    }
+
+    /** Record STREAM as the keystream for KEY, replacing any shorter one,
+     *  and discard the least recently used keystreams beyond my
+     *  budget. */
+    synchronized void put(Key key, Keystream stream) {
+        long bytes = key.bytes() + stream.bytes();
+        if (bytes > _budget) {
+            return;
+        }
+        Keystream old = _streams.get(key);
+        if (old != null) {
+            if (old.length() >= stream.length()) {
+                return;
+            }
+            _bytes -= key.bytes() + old.bytes();
+        }
+        _streams.put(key, stream);
+        _bytes += bytes;
+        Iterator<Map.Entry<Key, Keystream>> eldest =
+            _streams.entrySet().iterator();
+        while (_bytes > _budget) {
+            Map.Entry<Key, Keystream> e = eldest.next();
+            _bytes -= e.getKey().bytes() + e.getValue().bytes();
+            eldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** Discard all keystreams, keeping my statistics. */
+    synchronized void clear() {
+        _streams.clear();
+        _seen.clear();
+        _bytes = 0;
+    }
+
+    /** Return the number of lookups that found a keystream. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that found none. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of keystreams discarded to stay in budget. */
+    synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the approximate number of bytes used by my keystreams. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Return the number of keystreams I hold. */
+    synchronized int size() {
+        return _streams.size();
+    }
+
+    /** Return a one-line report of my statistics. */
+    @Override
+    public synchronized String toString() {
+        return String.format("keystream cache: %d entries, %d bytes, "
+                             + "%d hits, %d misses, %d evictions",
+                             _streams.size(), _bytes, _hits, _misses,
+                             _evictions);
+    }
+
+    /** A key: the rotors in each slot, their settings and ring settings,
+     *  and the plugboard.  Rotors are compared by identity. */
+    static final class Key {
+
+        /** The key of a machine with ROTORS in its slots at settings POS
+         *  with ring settings RINGS, and the plugboard taking each
+         *  character index C to PLUGS[C].  The arrays are copied. */
+        Key(Rotor[] rotors, int[] pos, int[] rings, int[] plugs) {
+            _rotors = rotors.clone();
+            _pos = pos.clone();
+            _rings = rings.clone();
+            _plugs = plugs.clone();
+            int h = Arrays.hashCode(_pos);
+            h = 31 * h + Arrays.hashCode(_rings);
+            h = 31 * h + Arrays.hashCode(_plugs);
+            for (Rotor r : _rotors) {
+                h = 31 * h + System.identityHashCode(r);
+            }
+            _hash = h;
+        }
+
+        /** Return the number of rotor slots. */
+        int slots() {
+            return _rotors.length;
+        }
+
+        /** Return the approximate number of bytes I occupy. */
+        long bytes() {
+            return 8L * _rotors.length
+                + 4L * (_pos.length + _rings.length + _plugs.length)
+                + ENTRY_OVERHEAD;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (_hash != other._hash
+                || _rotors.length != other._rotors.length) {
+                return false;
+            }
+            for (int i = 0; i < _rotors.length; i += 1) {
+                if (_rotors[i] != other._rotors[i]) {
+                    return false;
+                }
+            }
+            return Arrays.equals(_pos, other._pos)
+                && Arrays.equals(_rings, other._rings)
+                && Arrays.equals(_plugs, other._plugs);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Rotor in each slot. */
+        private final Rotor[] _rotors;
+
+        /** Setting and ring setting of each slot. */
+        private final int[] _pos, _rings;
+
+        /** Plugboard mapping, by character index. */
+        private final int[] _plugs;
+
+        /** Hash code. */
+        private final int _hash;
+    }
+
+    /** The substitutions and rotor movements of the first length()
+     *  keypresses from one key.  Immutable once built. */
+    static final class Keystream {
+
+        /** A keystream of LENGTH keypresses whose substitution at offset
+         *  T takes C to SUBS[T * size + C], where moves[T] is the total
+         *  returned by Machine.step for the first T keypresses, and after
+         *  which the rotor settings are END. */
+        Keystream(int length, int[] subs, long[] moves, int[] end) {
+            _length = length;
+            _subs = subs;
+            _moves = moves;
+            _end = end;
+        }
+
+        /** Return the number of keypresses covered. */
+        int length() {
+            return _length;
+        }
+
+        /** Return the substitutions (see constructor). */
+        int[] subs() {
+            return _subs;
+        }
+
+        /** Return the total returned by Machine.step over the first T
+         *  keypresses. */
+        long moves(int t) {
+            return _moves[t];
+        }
+
+        /** Return a copy of the rotor settings after all my
+         *  keypresses. */
+        int[] end() {
+            return _end.clone();
+        }
+
+        /** Return the approximate number of bytes I occupy. */
+        long bytes() {
+            return 4L * (_subs.length + _end.length) + 8L * _moves.length
+                + ENTRY_OVERHEAD;
+        }
+
+        /** Return the approximate number of bytes occupied by a
+         *  keystream of LENGTH keypresses over an alphabet of SIZE
+         *  characters for a machine with SLOTS rotor slots, or
+         *  Long.MAX_VALUE if that is too large to represent. */
+        static long bytes(int length, int size, int slots) {
+            try {
+                long subs = Math.multiplyExact((long) length, size);
+                return Math.addExact(Math.multiplyExact(4L, subs + slots),
+                                     8L * (length + 1) + ENTRY_OVERHEAD);
+            } catch (ArithmeticException excp) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        /** Number of keypresses covered. */
+        private final int _length;
+
+        /** Substitution at each offset. */
+        private final int[] _subs;
+
+        /** Prefix sums of rotor movements. */
+        private final long[] _moves;
+
+        /** Rotor settings at the end. */
+        private final int[] _end;
+    }
+
+    /** Approximate bytes of bookkeeping for each object held. */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** Fewest bytes a keystream uses for each keypress covered. */
+    private static final int KEYPRESS_BYTES = 12;
+
+    /** Number of recently seen keys remembered for admission. */
+    private static final int SEEN_KEYS = 1024;
+
+    /** Keystreams, least recently used first. */
+    private final LinkedHashMap<Key, Keystream> _streams =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Keys recently seen but not admitted, least recently seen
+     *  first. */
+    private final LinkedHashMap<Key, Boolean> _seen =
+        new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> e) {
+                return size() > SEEN_KEYS;
+            }
+        };
+
+    /** Byte budget. */
+    private final long _budget;
+
+    /** Greatest keystream length. */
+    private final int _length;
+
+    /** Approximate bytes used by _streams. */
+    private long _bytes;
+
+    /** Lookup statistics. */
+    private long _hits, _misses, _evictions;
+
+}
@@ -0,0 +1,233 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeystreamCache class.
+ *  @author Heming Wu
+ */
+public class KeystreamCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Keys used by the tests, as settings lines. */
+    private static final String[] KEYS = {
+        "B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "C Gamma VI VII VIII ZZZZ BCDE (AZ)",
+        "B Beta I II III AADU",
+    };
+
+    /** Return a fresh naval machine using CACHE. */
+    private Machine machine(KeystreamCache cache) {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "I", "II",
+                                                   "III" },
+                                 "AAAA", "", "");
+        m.setKeystreamCache(cache);
+        return m;
+    }
+
+    /** Apply settings line LINE, on its own, with SETTINGS. */
+    private void apply(Settings settings, String line) {
+        settings.clearRings();
+        settings.apply(line.toCharArray(), line.length());
+    }
+
+    /** Return a message of LEN letters depending on SEED. */
+    private String message(int len, int seed) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            result.append(UPPER.toChar((i * 7 + seed * 3 + i / 26) % 26));
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSameAsStepping() {
+        KeystreamCache cache = new KeystreamCache(1 << 20, 100);
+        Settings cached = new Settings(machine(cache));
+        Settings plain = new Settings(machine(null));
+        int[] lengths = { 5, 5, 5, 40, 30, 150, 0, 100, 7, 101 };
+        for (int k = 0; k < 60; k += 1) {
+            String key = KEYS[k % KEYS.length];
+            apply(cached, key);
+            apply(plain, key);
+            String msg = message(lengths[k % lengths.length], k);
+            assertEquals(plain.machine().convert(msg),
+                         cached.machine().convert(msg));
+            assertArrayEquals(plain.machine().positions(),
+                              cached.machine().positions());
+            assertEquals(plain.machine().convert("CONTINUED"),
+                         cached.machine().convert("CONTINUED"));
+        }
+        assertTrue(cache.hits() > 0);
+        assertEquals(KEYS.length, cache.size());
+    }
+
+    @Test
+    public void checkAdmission() {
+        KeystreamCache cache = new KeystreamCache(1 << 20, 50);
+        Machine m = machine(cache);
+        Machine.Snapshot key = m.snapshot();
+        m.convert("HELLO");
+        assertEquals(0, cache.size());
+        m.restore(key);
+        m.convert("HELLO");
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.misses());
+        m.restore(key);
+        m.convert("HELLO");
+        assertEquals(1, cache.hits());
+        m.convert("HELLO");
+        assertEquals(1, cache.hits());
+        assertTrue(cache.toString().contains("1 hits"));
+    }
+
+    @Test
+    public void checkBudget() {
+        KeystreamCache cache = new KeystreamCache(3000, 20);
+        Machine m = machine(cache);
+        Machine check = machine(null);
+        for (int k = 0; k < 40; k += 1) {
+            int[] pos = { 0, k % 26, 0, 0, 0 };
+            for (int r = 0; r < 2; r += 1) {
+                m.setRotors(pos, new int[5]);
+                check.setRotors(pos, new int[5]);
+                assertEquals(check.convert("ABCDEFGHIJKLMNOPQRST"),
+                             m.convert("ABCDEFGHIJKLMNOPQRST"));
+            }
+            assertTrue(cache.bytes() <= cache.budget());
+        }
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    public void checkShared() throws InterruptedException {
+        KeystreamCache cache = new KeystreamCache(1 << 20, 64);
+        Settings plain = new Settings(machine(null));
+        String[] expected = new String[KEYS.length];
+        for (int k = 0; k < KEYS.length; k += 1) {
+            apply(plain, KEYS[k]);
+            expected[k] = plain.machine().convert(message(80, k));
+        }
+        Thread[] threads = new Thread[4];
+        boolean[] ok = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t += 1) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                Settings settings = new Settings(machine(cache));
+                boolean good = true;
+                for (int i = 0; i < 300; i += 1) {
+                    int k = (i + id) % KEYS.length;
+                    apply(settings, KEYS[k]);
+                    good &= expected[k].equals(
+                        settings.machine().convert(message(80, k)));
+                }
+                ok[id] = good;
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (boolean good : ok) {
+            assertTrue(good);
+        }
+        assertEquals(4 * 300, cache.hits() + cache.misses());
+    }
+
+    @Test
+    public void checkMetrics() {
+        Metrics a = new Metrics(), b = new Metrics();
+        Machine cached = machine(new KeystreamCache(1 << 20, 30));
+        Machine plain = machine(null);
+        cached.setMetrics(a);
+        plain.setMetrics(b);
+        for (int k = 0; k < 5; k += 1) {
+            for (Machine m : new Machine[] { cached, plain }) {
+                m.setRotors("AADU", "");
+                m.convert(message(45, k));
+            }
+        }
+        cached.publishMetrics();
+        plain.publishMetrics();
+        for (Metrics.Count c : new Metrics.Count[] {
+                Metrics.Count.CHARACTERS, Metrics.Count.ROTOR_ADVANCES,
+                Metrics.Count.DOUBLE_STEPS }) {
+            assertEquals(b.snapshot().count(c), a.snapshot().count(c));
+        }
+    }
+
+    @Test
+    public void checkBadLetter() {
+        Machine cached = machine(new KeystreamCache(1 << 20, 30));
+        Machine plain = machine(null);
+        for (int k = 0; k < 3; k += 1) {
+            for (Machine m : new Machine[] { cached, plain }) {
+                m.setRotors("AXLE", "");
+                try {
+                    m.convert("ABCDE1FGH");
+                    fail("no error for bad letter");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+            assertArrayEquals(plain.positions(), cached.positions());
+        }
+    }
+
+    @Test
+    public void checkStreamOverBudget() {
+        for (long budget : new long[] { 300, 1200, 6000 }) {
+            KeystreamCache cache = new KeystreamCache(budget, 1000);
+            Machine m = machine(cache);
+            Machine check = machine(null);
+            for (int r = 0; r < 3; r += 1) {
+                m.setRotors("AXLE", "");
+                check.setRotors("AXLE", "");
+                assertEquals(check.convert(message(200, 1)),
+                             m.convert(message(200, 1)));
+                assertArrayEquals(check.positions(), m.positions());
+            }
+            assertTrue(cache.bytes() <= budget);
+            assertEquals(budget < 1000 ? 0 : 1, cache.size());
+            assertEquals(0, cache.evictions());
+        }
+    }
+
+    @Test
+    public void checkCapacity() {
+        KeystreamCache.Key key = new KeystreamCache.Key(
+            new Rotor[5], new int[5], new int[5], new int[26]);
+        KeystreamCache small = new KeystreamCache(1 << 12, 1 << 20);
+        int n = small.capacity(key, 26);
+        assertTrue(n > 0 && n < 1 << 20);
+        assertTrue(key.bytes() + KeystreamCache.Keystream.bytes(n, 26, 5)
+                   <= small.budget());
+        assertTrue(key.bytes() + KeystreamCache.Keystream.bytes(n + 1, 26, 5)
+                   > small.budget());
+        assertEquals(0, small.capacity(key, 1 << 16));
+        KeystreamCache huge =
+            new KeystreamCache(Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertTrue((long) huge.capacity(key, 1 << 16) * (1 << 16)
+                   <= Integer.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, KeystreamCache.Keystream.bytes(
+                         Integer.MAX_VALUE, Integer.MAX_VALUE, 5));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadBudget() {
+        new KeystreamCache(0, 10);
+    }
+
+}
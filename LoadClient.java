@@ -0,0 +1,254 @@
+package enigma;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A load test for Server: several connections send a stream of
+ *  pipelined requests, and the throughput and latencies are reported.
+ *  @author Heming Wu
+ */
+public class LoadClient {
+
+    /** Run the load test described by ARGS:
+     *    [options] ADDRESS SETTINGS
+     *  where ADDRESS is as for Main's --serve option and SETTINGS is a
+     *  settings line (without the '*') sent with every request.  The
+     *  options are:
+     *    --connections=N  use N connections at once (default 4).
+     *    --depth=N        keep N requests in flight on each connection
+     *                     (default 16).
+     *    --requests=N     send N requests on each connection (default
+     *                     10000).
+     *    --length=N       send messages of N characters (default 64).
+     *    --letters=CHARS  make messages from CHARS (default A-Z). */
+    public static void main(String... args) {
+        try {
+            new LoadClient(args).report();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A load test as described by ARGS (see main). */
+    LoadClient(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            String[] option = args[k].split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+            case "--connections":
+                _connections = positive(option[0], value);
+                break;
+            case "--depth":
+                _depth = positive(option[0], value);
+                break;
+            case "--requests":
+                _requests = positive(option[0], value);
+                break;
+            case "--length":
+                _length = positive(option[0], value);
+                break;
+            case "--letters":
+                if (value.isEmpty()) {
+                    throw error("--letters needs characters");
+                }
+                _letters = value;
+                break;
+            default:
+                throw error("unknown option %s", option[0]);
+            }
+        }
+        if (args.length - k != 2) {
+            throw error("need an address and a settings line");
+        }
+        _address = Server.address(args[k]);
+        _settings = args[k + 1];
+    }
+
+    /** Return the positive integer VALUE of option NAME. */
+    private static int positive(String name, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("%s needs a positive integer value", name);
+    }
+
+    /** Run the test and print its results. */
+    void report() {
+        long[][] latencies = new long[_connections][];
+        Thread[] threads = new Thread[_connections];
+        EnigmaException[] failure = new EnigmaException[1];
+        long start = System.nanoTime();
+        for (int i = 0; i < _connections; i += 1) {
+            final int id = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    latencies[id] = drive(id);
+                } catch (EnigmaException excp) {
+                    failure[0] = excp;
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException excp) {
+                throw error("interrupted");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long[] all = new long[_connections * _requests];
+        for (int i = 0; i < _connections; i += 1) {
+            System.arraycopy(latencies[i], 0, all, i * _requests, _requests);
+        }
+        Arrays.sort(all);
+        double seconds = elapsed / 1e9;
+        System.out.printf("%d requests of %d characters in %.2f s: "
+                          + "%.0f requests/s, %.0f characters/s%n",
+                          all.length, _length, seconds,
+                          all.length / seconds,
+                          (double) all.length * _length / seconds);
+        System.out.printf("latency (us): p50 %.1f  p99 %.1f  max %.1f%n",
+                          percentile(all, 0.50) / 1e3,
+                          percentile(all, 0.99) / 1e3,
+                          all[all.length - 1] / 1e3);
+    }
+
+    /** Return the value at fraction P of SORTED. */
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1,
+                                     Math.floor(p * sorted.length))];
+    }
+
+    /** Send _requests requests on a new connection, _depth at a time,
+     *  using random messages seeded by ID, and return their latencies in
+     *  nanoseconds. */
+    private long[] drive(int id) {
+        Random random = new Random(id);
+        StringBuilder body = new StringBuilder("*").append(_settings)
+            .append('\n');
+        for (int i = 0; i < _length; i += 1) {
+            body.append(_letters.charAt(random.nextInt(_letters.length())));
+        }
+        ByteBuffer request = frame(body.toString());
+        long[] latencies = new long[_requests];
+        long[] sent = new long[_depth];
+        ByteBuffer response = ByteBuffer.allocate(1 << 12);
+        try (SocketChannel channel = connect(_address)) {
+            for (int i = 0; i < Math.min(_depth, _requests); i += 1) {
+                sent[i] = System.nanoTime();
+                send(channel, request);
+            }
+            for (int i = 0; i < _requests; i += 1) {
+                response = receive(channel, response);
+                long now = System.nanoTime();
+                latencies[i] = now - sent[i % _depth];
+                if (response.get(0) != 0) {
+                    throw error("server error: %s",
+                                StandardCharsets.UTF_8.decode(
+                                    response.position(1)));
+                }
+                if (i + _depth < _requests) {
+                    sent[i % _depth] = now;
+                    send(channel, request);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("connection failed: %s", excp.getMessage());
+        }
+        return latencies;
+    }
+
+    /** Return a channel connected to ADDRESS. */
+    static SocketChannel connect(SocketAddress address) throws IOException {
+        SocketChannel result = SocketChannel.open(
+            address instanceof UnixDomainSocketAddress
+            ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+        result.connect(address);
+        return result;
+    }
+
+    /** Return a request frame holding BODY, ready to send. */
+    static ByteBuffer frame(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer result = ByteBuffer.allocate(4 + bytes.length);
+        result.putInt(bytes.length).put(bytes).flip();
+        return result;
+    }
+
+    /** Send all of FRAME on CHANNEL, leaving FRAME unchanged. */
+    static void send(SocketChannel channel, ByteBuffer frame)
+        throws IOException {
+        ByteBuffer buf = frame.duplicate();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /** Read one response frame from CHANNEL and return its body, ready
+     *  to read, in BUF if it fits and otherwise in a new buffer. */
+    static ByteBuffer receive(SocketChannel channel, ByteBuffer buf)
+        throws IOException {
+        buf.clear().limit(4);
+        readFully(channel, buf);
+        int len = buf.getInt(0);
+        if (len > buf.capacity()) {
+            buf = ByteBuffer.allocate(len);
+        }
+        buf.clear().limit(len);
+        readFully(channel, buf);
+        return buf.flip();
+    }
+
+    /** Fill the remainder of BUF from CHANNEL. */
+    private static void readFully(SocketChannel channel, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new IOException("connection closed");
+            }
+        }
+    }
+
+    /** Address of the server. */
+    private final SocketAddress _address;
+
+    /** Settings line sent with each request. */
+    private final String _settings;
+
+    /** Number of connections. */
+    private int _connections = 4;
+
+    /** Requests in flight on each connection. */
+    private int _depth = 16;
+
+    /** Requests sent on each connection. */
+    private int _requests = 10000;
+
+    /** Message length. */
+    private int _length = 64;
+
+    /** Characters messages are made of. */
+    private String _letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+}
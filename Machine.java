@@ -1,6 +1,14 @@
 package enigma;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static enigma.EnigmaException.*;
 
@@ -14,21 +22,40 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        checkShape(numRotors, pawls);
         _alphabet = alpha;
+        _size = alpha.size();
         _numRotors = numRotors;
         _numPawls = pawls;
         _allRotors = allRotors.toArray(_allRotors);
         _myRotors = new Rotor[_numRotors];
-
-        if (_numPawls < 0 || _numPawls >= _numRotors) {
-            throw EnigmaException.error("Number of pawls"
-                    + "should be between 0 and number of rotors");
+        _pos = new int[_numRotors];
+        _rings = new int[_numRotors];
+        _slotRotor = new int[_numRotors];
+        Arrays.fill(_slotRotor, -1);
+        _slotNotches = new boolean[_numRotors][];
+        _slotMoves = new boolean[_numRotors];
+        _registry = new int[Integer.highestOneBit(
+            Math.max(1, _allRotors.length) * 4 - 1) * 2];
+        for (int j = 0; j < _allRotors.length; j++) {
+            register(j);
         }
+        _keyable = (_numRotors - 1) * Math.log(alpha.size())
+            < 62 * Math.log(2);
+    }
 
-        if (_numRotors <= 1) {
+    /** Check that a machine may have 1 < NUMROTORS rotor slots and
+     *  0 <= PAWLS < NUMROTORS pawls. */
+    static void checkShape(int numRotors, int pawls) {
+        if (numRotors <= 1) {
             throw EnigmaException.error("Must have at least"
                     + "two rotors");
         }
+
+        if (pawls < 0 || pawls >= numRotors) {
+            throw EnigmaException.error("Number of pawls"
+                    + "should be between 0 and number of rotors");
+        }
     }
 
     /** Return the number of rotor slots I have. */
@@ -41,39 +68,139 @@ class Machine {
         return _numPawls;
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+     *  Initially, all rotors are set at their 0 setting and ring
+     *  setting. */
     void insertRotors(String[] rotors) {
         if (rotors.length > _myRotors.length) {
             throw error("Too many rotors");
+        } else if (rotors.length < _myRotors.length) {
+            throw error("Too few rotors");
         }
+        int[] indices = new int[rotors.length];
         for (int i = 0; i < rotors.length; i++) {
-            for (Rotor r : _allRotors) {
-                if (r.name().equals(rotors[i])) {
-                    _myRotors[i] = r;
-                }
+            indices[i] = rotorIndex(rotors[i].toCharArray(), 0,
+                                    rotors[i].length());
+            if (indices[i] < 0) {
+                throw error("Rotor %s not available", rotors[i]);
             }
         }
-        if (!(_myRotors[0] instanceof Reflector)) {
-            throw new EnigmaException("The leftmost rotor must be a reflector");
+        insertRotors(indices);
+        int[] zeros = new int[_numRotors];
+        setRotors(zeros, zeros);
+    }
+
+    /** Set my rotor slots to the available rotors whose indices in the
+     *  collection I was built from are ROTORS, leaving the settings and
+     *  ring settings of the slots unchanged.  Does nothing, and in
+     *  particular keeps any cached substitutions, if those rotors are
+     *  already in place. */
+    void insertRotors(int[] rotors) {
+        if (rotors.length != _numRotors) {
+            throw error("Wrong number of rotors");
+        }
+        if (Arrays.equals(rotors, _slotRotor)) {
+            return;
         }
+        int moving = 0;
+        for (int i = 0; i < rotors.length; i++) {
+            if (rotors[i] < 0 || rotors[i] >= _allRotors.length) {
+                throw error("No rotor number %d", rotors[i]);
+            }
+            if (_allRotors[rotors[i]].rotates()) {
+                moving += 1;
+            }
+        }
+        if (!_allRotors[rotors[0]].reflecting()) {
+            throw error("The leftmost rotor must be a reflector");
+        }
+        if (!_allRotors[rotors[_numRotors - 1]].rotates()) {
+            throw error("The rightmost rotor must be a moving rotor");
+        }
+        if (moving != _numPawls) {
+            throw error("Number of moving rotors doesn't match");
+        }
+        for (int i = 0; i < rotors.length; i++) {
+            fill(i, rotors[i]);
+        }
+        invalidateCache();
+        _cycleStart = null;
+    }
 
-        if (!(_myRotors[_myRotors.length - 1] instanceof MovingRotor)) {
-            throw new EnigmaException("The rightmost rotor must be "
-                    + "a moving rotor");
+    /** Put available rotor number J in slot I, updating the tables used
+     *  in stepping. */
+    private void fill(int i, int j) {
+        Rotor r = _allRotors[j];
+        _slotRotor[i] = j;
+        _myRotors[i] = r;
+        _slotNotches[i] = r.notchTable();
+        if (_slotMoves[i] != r.rotates()) {
+            _slotMoves[i] = r.rotates();
+            int n = 0;
+            for (int k = _numRotors - 2; k > 0; k -= 1) {
+                n += _slotMoves[k] ? 1 : 0;
+            }
+            _pawlSlots = new int[n];
+            for (int k = _numRotors - 2, m = 0; k > 0; k -= 1) {
+                if (_slotMoves[k]) {
+                    _pawlSlots[m++] = k;
+                }
+            }
         }
+    }
 
-        int movingRotorCount = 0;
-        for (Rotor s : _myRotors) {
-            if (s instanceof MovingRotor) {
-                movingRotorCount += 1;
+    /** Return the index among my available rotors of the one whose name
+     *  is NAME[START .. END), or -1 if there is none.  If several have
+     *  that name, the last is used.  Allocates nothing. */
+    int rotorIndex(char[] name, int start, int end) {
+        int mask = _registry.length - 1;
+        for (int h = nameHash(name, start, end) & mask; _registry[h] != 0;
+             h = (h + 1) & mask) {
+            String candidate = _allRotors[_registry[h] - 1].name();
+            if (candidate.length() == end - start
+                && regionEquals(candidate, name, start)) {
+                return _registry[h] - 1;
             }
         }
-        if (movingRotorCount != _numPawls) {
-            throw new EnigmaException("Number of moving rotors "
-                    + "doesn't match");
+        return -1;
+    }
+
+    /** Add available rotor number J to _registry, replacing any earlier
+     *  rotor of the same name. */
+    private void register(int j) {
+        String name = _allRotors[j].name();
+        int mask = _registry.length - 1;
+        int h = nameHash(name.toCharArray(), 0, name.length()) & mask;
+        while (_registry[h] != 0
+               && !_allRotors[_registry[h] - 1].name().equals(name)) {
+            h = (h + 1) & mask;
+        }
+        _registry[h] = j + 1;
+    }
+
+    /** Return a hash of S[START .. END). */
+    private static int nameHash(char[] s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s[i];
         }
+        return h ^ (h >>> 16);
+    }
+
+    /** Return true iff S[START .. START + NAME.length()) equals NAME. */
+    private static boolean regionEquals(String name, char[] s, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != s[start + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -95,131 +222,832 @@ class Machine {
             throw new EnigmaException("Number of ring settings should "
                     + "be equal to the number of rotors - 1.");
         }
+        int[] pos = new int[_numRotors], rings = _rings.clone();
         for (int i = 0; i < setting.length(); i++) {
-            char setat = setting.charAt(i);
-            for (int j = 1; j < _myRotors.length; j++) {
-                if (j == i + 1) {
-                    _myRotors[j].set(setat);
-                }
-            }
+            pos[i + 1] = settingIndex(setting.charAt(i));
         }
-
         for (int i = 0; i < ringset.length(); i++) {
-            char ringSetat = ringset.charAt(i);
-            for (int j = 1; j < _myRotors.length; j++) {
-                if (j == i + 1) {
-                    _myRotors[j].ringSet(ringSetat);
-                }
+            rings[i + 1] = settingIndex(ringset.charAt(i));
+        }
+        setRotors(pos, rings);
+    }
+
+    /** Set the settings and ring settings of my rotors other than the
+     *  reflector to SETTING[1 ..] and RINGS[1 ..], given as indices in
+     *  my alphabet.  Cached substitutions are kept unless a ring setting
+     *  changes. */
+    void setRotors(int[] setting, int[] rings) {
+        int size = _alphabet.size();
+        for (int i = 1; i < _numRotors; i++) {
+            if (setting[i] < 0 || setting[i] >= size
+                || rings[i] < 0 || rings[i] >= size) {
+                throw error("Setting out of range");
             }
         }
+        boolean rerung = false;
+        for (int i = 1; i < _numRotors; i++) {
+            rerung |= rings[i] != _rings[i];
+            _pos[i] = setting[i];
+            _rings[i] = rings[i];
+        }
+        if (rerung) {
+            invalidateCache();
+        }
+        _atKey = true;
+    }
+
+    /** Return the index of setting character C in my alphabet. */
+    int settingIndex(char c) {
+        int result = _alphabet.toInt(c);
+        if (result < 0) {
+            throw error("Setting %c not in alphabet", c);
+        }
+        return result;
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        if (plugboard == _plugboard) {
+            return;
+        }
+        invalidateCache();
         _plugboard = plugboard;
     }
 
+    /** Return a record of my present rotors, their settings and ring
+     *  settings, and my plugboard, which restore can return me to. */
+    Snapshot snapshot() {
+        if (_slotRotor[0] < 0) {
+            throw error("No rotors inserted");
+        }
+        long[] slots = new long[_numRotors];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = Snapshot.pack(_slotRotor[i], _pos[i], _rings[i]);
+        }
+        return new Snapshot(this, slots, _plugboard);
+    }
+
+    /** Return me to the state recorded in STATE, which must have been
+     *  made by my snapshot method.  Allocates nothing. */
+    void restore(Snapshot state) {
+        if (state._machine != this) {
+            throw error("Snapshot is from another machine");
+        }
+        boolean rewired = state._plugboard != _plugboard;
+        for (int i = 0; i < _numRotors; i++) {
+            long slot = state._slots[i];
+            int rotor = Snapshot.rotor(slot), ring = Snapshot.ring(slot);
+            if (rotor != _slotRotor[i] || ring != _rings[i]) {
+                rewired = true;
+                if (rotor != _slotRotor[i]) {
+                    _cycleStart = null;
+                    fill(i, rotor);
+                }
+                _rings[i] = ring;
+            }
+            _pos[i] = Snapshot.position(slot);
+        }
+        if (rewired) {
+            invalidateCache();
+        }
+        _plugboard = state._plugboard;
+        _atKey = true;
+    }
+
+    /** An immutable record of a machine's state.  Each slot is packed
+     *  into one long holding the index of its rotor among the
+     *  machine's available rotors, its setting and its ring setting;
+     *  the plugboard, being immutable, is shared.  Snapshots are equal
+     *  iff they record the same state of the same machine, so they may
+     *  be used as hash keys. */
+    static final class Snapshot {
+
+        /** A snapshot of MACHINE with packed slots SLOTS and plugboard
+         *  PLUGBOARD. */
+        private Snapshot(Machine machine, long[] slots,
+                         Permutation plugboard) {
+            _machine = machine;
+            _slots = slots;
+            _plugboard = plugboard;
+            _hash = 31 * Arrays.hashCode(slots)
+                + System.identityHashCode(plugboard);
+        }
+
+        /** Return ROTOR, POSITION and RING packed into one long. */
+        private static long pack(int rotor, int position, int ring) {
+            return ((long) rotor << (2 * SETTING_BITS))
+                | ((long) position << SETTING_BITS) | ring;
+        }
+
+        /** Return the rotor index packed in SLOT. */
+        private static int rotor(long slot) {
+            return (int) (slot >>> (2 * SETTING_BITS));
+        }
+
+        /** Return the setting packed in SLOT. */
+        private static int position(long slot) {
+            return (int) (slot >>> SETTING_BITS) & SETTING_MASK;
+        }
+
+        /** Return the ring setting packed in SLOT. */
+        private static int ring(long slot) {
+            return (int) slot & SETTING_MASK;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) obj;
+            return _machine == other._machine
+                && _plugboard == other._plugboard
+                && Arrays.equals(_slots, other._slots);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Bits for a setting or ring setting: enough for any index in an
+         *  alphabet of chars. */
+        private static final int SETTING_BITS = 17;
+
+        /** Mask selecting SETTING_BITS bits. */
+        private static final int SETTING_MASK = (1 << SETTING_BITS) - 1;
+
+        /** The machine that made me. */
+        private final Machine _machine;
+
+        /** Rotor, setting and ring setting of each slot, packed. */
+        private final long[] _slots;
+
+        /** The plugboard, which is immutable and so may be shared. */
+        private final Permutation _plugboard;
+
+        /** Hash code. */
+        private final int _hash;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
-
      *  the machine. */
     int convert(int c) {
-        char input = _alphabet.toChar(c);
-        if (_plugboard.alphabet().contains(input)) {
-            input = _plugboard.permute(input);
+        _atKey = false;
+        long moves = step(_pos);
+        if (_metrics != null) {
+            count(moves);
+        }
+        if (_cache != null && _keyable) {
+            return substitution()[c];
+        }
+        return convertAt(_pos, c);
+    }
+
+    /** Advance my rotors as N keypresses would, without converting
+     *  anything.  Rather than performing every step, this skips directly
+     *  over runs of keypresses that move only the rightmost rotor and,
+     *  for large N, over whole periods of the sequence of rotor
+     *  positions, so its cost is bounded by the length of that period
+     *  rather than by N. */
+    void seek(long n) {
+        if (n < 0) {
+            throw error("Cannot seek backwards");
         }
+        int[] pos = positions();
+        int size = _alphabet.size();
+        long revolutions = n / size;
+        if (revolutions > 1) {
+            long[] cycle = findCycle(pos, revolutions);
+            if (cycle != null && revolutions > cycle[0]) {
+                revolutions = cycle[0] + (revolutions - cycle[0]) % cycle[1];
+            }
+        }
+        for (long k = 0; k < revolutions; k++) {
+            skip(pos, size);
+        }
+        skip(pos, n % size);
+        setPositions(pos);
+    }
 
+    /** Set the settings of my rotors other than the reflector to
+     *  POS[1] .. POS[numRotors() - 1], given as indices in my alphabet,
+     *  leaving their ring settings unchanged. */
+    void setPositions(int[] pos) {
+        _atKey = false;
+        System.arraycopy(pos, 1, _pos, 1, _pos.length - 1);
+    }
 
+    /** Return the current settings of my rotors, indexed by slot. */
+    int[] positions() {
+        return _pos.clone();
+    }
 
-        Boolean preAtNotch = false;
-        Boolean rightHasmoved = false;
-        for (int i = _myRotors.length - 2; i > 0; i -= 1) {
-            Boolean rightAtNotch = _myRotors[i + 1].atNotch();
-            if ((rightAtNotch && !rightHasmoved) || preAtNotch) {
-                preAtNotch = _myRotors[i].atNotch();
-                _myRotors[i].advance();
-                if (i + 1 != _myRotors.length - 1
-                        && _myRotors[i] instanceof MovingRotor
-                        && !rightHasmoved) {
-                    _myRotors[i + 1].advance();
-                }
-                rightHasmoved = true;
-            } else {
-                rightHasmoved = false;
+    /** Return the ring settings of my rotors, indexed by slot. */
+    int[] rings() {
+        return _rings.clone();
+    }
+
+    /** Return the indices among my available rotors of the rotors in
+     *  my slots, indexed by slot. */
+    int[] slotRotors() {
+        return _slotRotor.clone();
+    }
+
+    /** Return my available rotors, in the order used by rotorIndex. */
+    List<Rotor> availableRotors() {
+        return Arrays.asList(_allRotors);
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Advance the rotor settings in POS as for one keypress.  The
+     *  rightmost rotor always advances, and any other moving rotor
+     *  advances iff the rotor to its right is at a notch, or it is
+     *  itself at a notch and the rotor to its left is a moving rotor
+     *  (double stepping).  Notches are those at the start of the
+     *  keypress.  Returns the number of rotors that advanced plus
+     *  DOUBLE_STEP times the number that advanced only because of
+     *  their own notch.  Only the slots holding moving rotors are
+     *  visited, and notches are looked up in the slots' notch tables,
+     *  so a keypress makes no calls and allocates nothing. */
+    long step(int[] pos) {
+        int last = pos.length - 1, size = _size;
+        boolean[][] notches = _slotNotches;
+        boolean[] slotMoves = _slotMoves;
+        int[] pawls = _pawlSlots;
+        long moves = 1;
+        boolean rightAtNotch = notches[last][pos[last]];
+        for (int k = 0, right = last; k < pawls.length; k += 1) {
+            int i = pawls[k];
+            if (i != right - 1) {
+                rightAtNotch = notches[i + 1][pos[i + 1]];
+            }
+            int p = pos[i];
+            boolean atNotch = notches[i][p];
+            if (rightAtNotch || (atNotch && slotMoves[i - 1])) {
+                pos[i] = p + 1 == size ? 0 : p + 1;
+                moves += rightAtNotch ? 1 : 1 + DOUBLE_STEP;
             }
+            rightAtNotch = atNotch;
+            right = i;
         }
-        _myRotors[_myRotors.length - 1].advance();
+        int p = pos[last] + 1;
+        pos[last] = p == size ? 0 : p;
+        return moves;
+    }
 
-        int i = _alphabet.toInt(input);
-        int output = convertHelper(i);
-        return  _plugboard.permute(output);
+    /** Make my conversions count characters, rotor advances and double
+     *  steps in METRICS, or in nothing if METRICS is null.  Counts are
+     *  added in batches; publishMetrics adds any that are pending. */
+    void setMetrics(Metrics metrics) {
+        publishMetrics();
+        _metrics = metrics;
     }
 
-    /** Simulate the process of a letter floating from right to left
-     * and then from left to right.
-     * @return an int the fastest rotor will return.
-     * @param ori the letter passed in.
-     */
-    int convertHelper(int ori) {
-        int reflectorReturn = convertForwardHelper(_myRotors.length - 1, ori);
-        return convertBackwardHelper(1, reflectorReturn);
+    /** Return the metrics set by setMetrics, or null. */
+    Metrics metrics() {
+        return _metrics;
+    }
+
+    /** Add the counts of conversions since the last batch to my
+     *  metrics. */
+    void publishMetrics() {
+        if (_metrics != null && _pendingChars > 0) {
+            publish(_metrics, _pendingChars, _pendingMoves);
+        }
+        _pendingChars = 0;
+        _pendingMoves = 0;
     }
 
+    /** Count one character converted, with MOVES as returned by step. */
+    private void count(long moves) {
+        _pendingMoves += moves;
+        _pendingChars += 1;
+        if (_pendingChars == METRICS_BATCH) {
+            publishMetrics();
+        }
+    }
 
-    /** The letter passed in will flow through
-     * all the rotors from right to left.
-     *  It returns what the reflector returns.
-     * @param i the index of the current rotor
-     * @param p the letter passed in.
-     * @return what the reflector returns.
-     */
-    int convertForwardHelper(int i, int p) {
-        if (i == 0) {
-            p = _myRotors[i].permutation().wrap(p);
-            return _myRotors[0].convertForward(p);
+    /** Add CHARS characters converted, with total MOVES as returned by
+     *  step, to METRICS. */
+    static void publish(Metrics metrics, long chars, long moves) {
+        metrics.add(Metrics.Count.CHARACTERS, chars);
+        metrics.add(Metrics.Count.ROTOR_ADVANCES, moves % DOUBLE_STEP);
+        metrics.add(Metrics.Count.DOUBLE_STEPS, moves / DOUBLE_STEP);
+    }
+
+    /** Advance the rotor settings in POS as for N keypresses.  Runs of
+     *  keypresses during which no rotor but the leftmost is at a notch
+     *  move only the rightmost rotor, and are taken in one jump. */
+    void skip(int[] pos, long n) {
+        int last = pos.length - 1, size = _size;
+        boolean[] fastest = _slotNotches[last];
+        while (n > 0) {
+            boolean quiet = true;
+            for (int i = 2; i < last && quiet; i++) {
+                quiet = !_slotNotches[i][pos[i]];
+            }
+            if (!quiet || fastest[pos[last]]) {
+                step(pos);
+                n -= 1;
+                continue;
+            }
+            int run = 1;
+            while (run < n && run < size
+                   && !fastest[(pos[last] + run) % size]) {
+                run += 1;
+            }
+            pos[last] = (pos[last] + run) % size;
+            n -= run;
+        }
+    }
+
+    /** Return {MU, LAMBDA} such that, starting from the rotor settings
+     *  START, the settings after every size() keypresses repeat with
+     *  period LAMBDA after the first MU such revolutions.  Returns null
+     *  if finding them would take more than about LIMIT revolutions,
+     *  in which case it is no cheaper than simply stepping. */
+    private long[] findCycle(int[] start, long limit) {
+        if (_cycleStart != null && Arrays.equals(_cycleStart, start)) {
+            return _cycle;
+        }
+        int size = _alphabet.size();
+        long work = 0;
+        long power = 1, lambda = 1;
+        int[] tortoise = start.clone(), hare = start.clone();
+        skip(hare, size);
+        while (!Arrays.equals(tortoise, hare)) {
+            if (power == lambda) {
+                System.arraycopy(hare, 0, tortoise, 0, hare.length);
+                power *= 2;
+                lambda = 0;
+            }
+            skip(hare, size);
+            lambda += 1;
+            work += 1;
+            if (work > limit) {
+                return null;
+            }
+        }
+        long mu = 0;
+        System.arraycopy(start, 0, tortoise, 0, start.length);
+        System.arraycopy(start, 0, hare, 0, start.length);
+        for (long k = 0; k < lambda; k++) {
+            skip(hare, size);
+        }
+        while (!Arrays.equals(tortoise, hare)) {
+            skip(tortoise, size);
+            skip(hare, size);
+            mu += 1;
+        }
+        _cycleStart = start.clone();
+        _cycle = new long[] { mu, lambda };
+        return _cycle;
+    }
+
+    /** Cache the complete substitution performed by the machine, plugboard
+     *  included, for each combination of rotor positions encountered,
+     *  using roughly at most BYTES bytes and discarding the least recently
+     *  used entries beyond that.  A BYTES of 0 turns caching off (the
+     *  default).  The cache is discarded whenever the rotors, their ring
+     *  settings, or the plugboard change. */
+    void setCacheBudget(long bytes) {
+        if (bytes <= 0) {
+            _cache = null;
         } else {
-            p = _myRotors[i].permutation().wrap(p);
-            return convertForwardHelper(i - 1, _myRotors[i].convertForward(p));
+            long entryBytes = 4L * _alphabet.size() + CACHE_ENTRY_OVERHEAD;
+            _cache = new SubstitutionCache(
+                (int) Math.min(Integer.MAX_VALUE,
+                               Math.max(1, bytes / entryBytes)));
         }
     }
 
+    /** Share the keystreams in CACHE with other machines, or stop using
+     *  keystreams if CACHE is null (the default).  The first conversion
+     *  of a char array or String after my rotors are set by setRotors or
+     *  restore then converts its first CACHE.length() characters by
+     *  lookup in the keystream of my key, if CACHE has admitted it.
+     *  CACHE must only be shared with machines made from the same
+     *  configuration as me. */
+    void setKeystreamCache(KeystreamCache cache) {
+        _keystreams = cache;
+    }
 
-    /** Help passed the letter from left to right (1 to length -1).
-     *  It returns what the fastest rotor returns.
-     * @param i the index of the current rotor.
-     * @param p the letter the reflector returned
-     * @return what the fastest rotor returns.
-     */
-    int convertBackwardHelper(int i, int p) {
-        if (i == _myRotors.length - 1) {
-            p = _myRotors[i].permutation().wrap(p);
-            return _myRotors[_myRotors.length - 1].convertBackward(p);
+    /** Return the keystream cache set by setKeystreamCache, or null. */
+    KeystreamCache keystreamCache() {
+        return _keystreams;
+    }
+
+    /** Convert as many of the LEN characters of IN starting at OFF into
+     *  OUT starting at OUTOFF as the keystream of my present key in
+     *  _keystreams covers, building or extending it if the cache admits
+     *  my key, and advance my rotors accordingly.  Returns the number of
+     *  characters converted, which is 0 if there is no keystream. */
+    private int convertKeyed(char[] in, int off, int len,
+                             char[] out, int outOff) {
+        int size = _size;
+        int[] plugs = new int[size];
+        for (int c = 0; c < size; c += 1) {
+            plugs[c] = _plugboard.permute(c);
+        }
+        KeystreamCache.Key key =
+            new KeystreamCache.Key(_myRotors, _pos, _rings, plugs);
+        int wanted = Math.min(len, _keystreams.capacity(key, size));
+        if (wanted == 0) {
+            return 0;
+        }
+        KeystreamCache.Keystream stream = _keystreams.get(key);
+        if (stream == null && !_keystreams.admit(key)) {
+            return 0;
+        }
+        if (stream == null || stream.length() < wanted) {
+            stream = keystream(stream, wanted);
+            _keystreams.put(key, stream);
+        }
+        int n = Math.min(len, stream.length());
+        int[] subs = stream.subs();
+        for (int i = 0; i < n; i += 1) {
+            int c = _alphabet.toInt(in[off + i]);
+            if (c < 0) {
+                advance(stream, i);
+                throw error("Letter(s) not in alphabet");
+            }
+            out[outOff + i] = _alphabet.toChar(subs[i * size + c]);
+        }
+        advance(stream, n);
+        return n;
+    }
+
+    /** Return the keystream of LENGTH keypresses from my present state,
+     *  continuing PREFIX, an earlier keystream from it, unless that is
+     *  null.  Does not change my rotors. */
+    private KeystreamCache.Keystream keystream(KeystreamCache.Keystream prefix,
+                                               int length) {
+        int size = _size, start = 0;
+        int[] subs = new int[Math.multiplyExact(length, size)];
+        long[] moves = new long[length + 1];
+        int[] pos;
+        if (prefix == null) {
+            pos = positions();
         } else {
-            p = _myRotors[i].permutation().wrap(p);
-            return convertBackwardHelper(i + 1,
-                    _myRotors[i].convertBackward(p));
+            start = prefix.length();
+            System.arraycopy(prefix.subs(), 0, subs, 0, start * size);
+            for (int t = 0; t <= start; t += 1) {
+                moves[t] = prefix.moves(t);
+            }
+            pos = prefix.end();
+        }
+        for (int t = start; t < length; t += 1) {
+            moves[t + 1] = moves[t] + step(pos);
+            for (int c = 0; c < size; c += 1) {
+                subs[t * size + c] = convertAt(pos, c);
+            }
         }
+        return new KeystreamCache.Keystream(length, subs, moves, pos);
+    }
+
+    /** Advance my rotors over the first N keypresses of STREAM, counting
+     *  them in my metrics. */
+    private void advance(KeystreamCache.Keystream stream, int n) {
+        if (n == stream.length()) {
+            System.arraycopy(stream.end(), 1, _pos, 1, _numRotors - 1);
+        } else {
+            skip(_pos, n);
+        }
+        if (_metrics != null) {
+            publish(_metrics, n, stream.moves(n));
+        }
+    }
+
+    /** Discard all cached substitutions. */
+    private void invalidateCache() {
+        if (_cache != null) {
+            _cache.clear();
+        }
+    }
+
+    /** Return the complete substitution for the current rotor positions,
+     *  computing and caching it if necessary. */
+    private int[] substitution() {
+        long key = 0;
+        for (int i = 1; i < _myRotors.length; i++) {
+            key = key * _alphabet.size() + _pos[i];
+        }
+        int[] result = _cache.get(key);
+        if (result == null) {
+            result = new int[_alphabet.size()];
+            for (int c = 0; c < result.length; c++) {
+                result[c] = convertAt(_pos, c);
+            }
+            _cache.put(key, result);
+        }
+        return result;
+    }
+
+    /** A least-recently-used map from packed rotor positions to complete
+     *  substitutions. */
+    private static class SubstitutionCache extends LinkedHashMap<Long, int[]> {
+
+        /** A cache holding at most CAPACITY substitutions. */
+        SubstitutionCache(int capacity) {
+            super(16, 0.75f, true);
+            _capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+            return size() > _capacity;
+        }
+
+        /** Maximum number of entries. */
+        private final int _capacity;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String outmsg = "";
-        for (int i = 0; i < msg.length(); i++) {
-            char inLetter = msg.charAt(i);
-            int in = _alphabet.toInt(inLetter);
-            if (in == -1) {
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /** Encode/decode the LEN characters of IN starting at OFF into OUT
+     *  starting at OUTOFF, updating the state of the rotors exactly as
+     *  LEN calls of convert(int) would.  IN and OUT may be the same
+     *  array.  Characters before the first one not in my alphabet are
+     *  converted before the error is reported, except that when the
+     *  conversion is split between threads (see setParallelism), an
+     *  error leaves the rotors unchanged.  The first conversion after the
+     *  rotors are set by setRotors or restore may use the keystream
+     *  cache (see setKeystreamCache). */
+    void convert(char[] in, int off, int len, char[] out, int outOff) {
+        if (_atKey && _keystreams != null && len > 0) {
+            int n = convertKeyed(in, off, len, out, outOff);
+            off += n;
+            outOff += n;
+            len -= n;
+        }
+        _atKey = false;
+        if (_pool != null && len >= _parallelThreshold) {
+            convertParallel(in, off, len, out, outOff);
+            return;
+        }
+        for (int i = 0; i < len; i++) {
+            int c = _alphabet.toInt(in[off + i]);
+            if (c < 0) {
+                throw error("Letter(s) not in alphabet");
+            }
+            out[outOff + i] = _alphabet.toChar(convert(c));
+        }
+    }
+
+    /** Treatments of bytes that do not encode a character of the
+     *  alphabet in byte conversions. */
+    enum Unknown {
+        /** Report an error. */
+        REJECT,
+        /** Copy the byte to the output unchanged, without stepping. */
+        PASS,
+        /** Drop the byte, without stepping. */
+        SKIP
+    }
+
+    /** Make byte conversions treat bytes outside my alphabet according
+     *  to POLICY.  The default is Unknown.REJECT. */
+    void setUnknownBytes(Unknown policy) {
+        _unknownBytes = policy;
+    }
+
+    /** Encode/decode the LEN bytes of IN starting at OFF into OUT
+     *  starting at OUTOFF, returning the number of bytes written.  Each
+     *  byte B stands for character (char) (B & 0xff), so my alphabet
+     *  must consist of characters below 256.  Bytes outside my alphabet
+     *  are treated as set by setUnknownBytes; other bytes update the
+     *  rotors as convert(int) would.  IN and OUT may be the same array,
+     *  as long as OUTOFF <= OFF. */
+    int convert(byte[] in, int off, int len, byte[] out, int outOff) {
+        int[] index = byteIndex();
+        int k = outOff;
+        for (int i = off; i < off + len; i++) {
+            int c = index[in[i] & 0xff];
+            if (c >= 0) {
+                out[k++] = _indexByte[convert(c)];
+            } else if (_unknownBytes == Unknown.PASS) {
+                out[k++] = in[i];
+            } else if (_unknownBytes == Unknown.REJECT) {
                 throw error("Letter(s) not in alphabet");
             }
-            char outLetter = _alphabet.toChar(convert(in));
-            outmsg += outLetter;
         }
-        return outmsg;
+        return k - outOff;
+    }
+
+    /** Encode/decode the remaining bytes of IN into OUT as for
+     *  convert(byte[], int, int, byte[], int), advancing the positions
+     *  of both buffers.  Either may be a heap or direct buffer.  OUT
+     *  must have at least as many bytes remaining as IN. */
+    void convert(ByteBuffer in, ByteBuffer out) {
+        if (out.remaining() < in.remaining()) {
+            throw error("Output buffer too small");
+        }
+        int[] index = byteIndex();
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            int c = index[b & 0xff];
+            if (c >= 0) {
+                out.put(_indexByte[convert(c)]);
+            } else if (_unknownBytes == Unknown.PASS) {
+                out.put(b);
+            } else if (_unknownBytes == Unknown.REJECT) {
+                throw error("Letter(s) not in alphabet");
+            }
+        }
+    }
+
+    /** Return a table giving the index in my alphabet of the character
+     *  encoded by each unsigned byte value, or -1, computing it and
+     *  _indexByte if necessary. */
+    private int[] byteIndex() {
+        if (_byteIndex == null) {
+            int[] index = new int[256];
+            byte[] bytes = new byte[_alphabet.size()];
+            for (int b = 0; b < index.length; b++) {
+                index[b] = _alphabet.toInt((char) b);
+            }
+            for (int c = 0; c < bytes.length; c++) {
+                if (_alphabet.toChar(c) >= index.length) {
+                    throw error("Alphabet cannot be converted as bytes");
+                }
+                bytes[c] = (byte) _alphabet.toChar(c);
+            }
+            _indexByte = bytes;
+            _byteIndex = index;
+        }
+        return _byteIndex;
+    }
+
+    /** Split bulk conversions of at least THRESHOLD characters into
+     *  chunks converted by up to PARALLELISM threads.  Each chunk starts
+     *  from the rotor settings at its offset in the message, so the
+     *  result is identical to converting serially.  A PARALLELISM of 1
+     *  or less turns this off (the default). */
+    void setParallelism(int parallelism, int threshold) {
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+        if (parallelism > 1) {
+            _pool = new ForkJoinPool(parallelism);
+        }
+        _parallelThreshold = Math.max(1, threshold);
+    }
+
+    /** Convert as for convert(IN, OFF, LEN, OUT, OUTOFF) using _pool. */
+    private void convertParallel(char[] in, int off, int len,
+                                 char[] out, int outOff) {
+        int chunks = Math.min(len, _pool.getParallelism() * CHUNKS_PER_THREAD);
+        int chunkLen = (len + chunks - 1) / chunks;
+        chunks = (len + chunkLen - 1) / chunkLen;
+        int[][] starts = new int[chunks][];
+        int[] pos = positions();
+        for (int k = 0; k < chunks; k++) {
+            starts[k] = pos.clone();
+            skip(pos, chunkLen);
+        }
+        _pool.invoke(new ConvertTask(starts, 0, chunks, chunkLen,
+                                     in, off, len, out, outOff));
+        seek(len);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF into OUT starting
+     *  at OUTOFF, beginning with the rotor settings POS, which are
+     *  updated.  Does not change my rotors. */
+    private void convertFrom(int[] pos, char[] in, int off, int len,
+                             char[] out, int outOff) {
+        long moves = 0;
+        for (int i = 0; i < len; i++) {
+            int c = _alphabet.toInt(in[off + i]);
+            if (c < 0) {
+                throw error("Letter(s) not in alphabet");
+            }
+            moves += step(pos);
+            out[outOff + i] = _alphabet.toChar(convertAt(pos, c));
+        }
+        if (_metrics != null) {
+            publish(_metrics, len, moves);
+        }
+    }
+
+    /** Return the conversion of C with my rotors at settings POS, without
+     *  changing them or stepping. */
+    private int convertAt(int[] pos, int c) {
+        return _plugboard.permute(scrambleAt(pos, _plugboard.permute(c)));
+    }
+
+    /** Return the conversion of C by my rotors alone, bypassing the
+     *  plugboard, with my rotors at settings POS and my ring
+     *  settings. */
+    int scrambleAt(int[] pos, int c) {
+        for (int i = pos.length - 1; i >= 0; i -= 1) {
+            c = _myRotors[i].convertForward(pos[i], _rings[i], c);
+        }
+        for (int i = 1; i < pos.length; i += 1) {
+            c = _myRotors[i].convertBackward(pos[i], _rings[i], c);
+        }
+        return c;
+    }
+
+    /** A task converting a range of chunks of a message. */
+    private class ConvertTask extends RecursiveAction {
+
+        /** A task converting chunks LO..HI-1 of the LEN characters of IN
+         *  starting at OFF into OUT starting at OUTOFF, where chunk K
+         *  holds CHUNKLEN characters and starts at rotor settings
+         *  STARTS[K]. */
+        ConvertTask(int[][] starts, int lo, int hi, int chunkLen,
+                    char[] in, int off, int len, char[] out, int outOff) {
+            _starts = starts;
+            _lo = lo;
+            _hi = hi;
+            _chunkLen = chunkLen;
+            _in = in;
+            _off = off;
+            _len = len;
+            _out = out;
+            _outOff = outOff;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new ConvertTask(_starts, _lo, mid, _chunkLen,
+                                          _in, _off, _len, _out, _outOff),
+                          new ConvertTask(_starts, mid, _hi, _chunkLen,
+                                          _in, _off, _len, _out, _outOff));
+                return;
+            }
+            int start = _lo * _chunkLen;
+            convertFrom(_starts[_lo], _in, _off + start,
+                        Math.min(_chunkLen, _len - start),
+                        _out, _outOff + start);
+        }
+
+        /** Starting rotor settings of each chunk. */
+        private final int[][] _starts;
+
+        /** First chunk to convert. */
+        private final int _lo;
+
+        /** One past the last chunk to convert. */
+        private final int _hi;
+
+        /** Characters per chunk. */
+        private final int _chunkLen;
+
+        /** Source message. */
+        private final char[] _in;
+
+        /** Start of the message in _in. */
+        private final int _off;
+
+        /** Length of the whole message. */
+        private final int _len;
+
+        /** Destination. */
+        private final char[] _out;
+
+        /** Start of the message in _out. */
+        private final int _outOff;
+    }
+
+    /** Encode/decode the remaining characters of IN into OUT, advancing
+     *  the positions of both buffers.  OUT must have at least as many
+     *  characters remaining as IN. */
+    void convert(CharBuffer in, CharBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw error("Output buffer too small");
+        }
+        while (in.hasRemaining()) {
+            int c = _alphabet.toInt(in.get());
+            if (c < 0) {
+                throw error("Letter(s) not in alphabet");
+            }
+            out.put(_alphabet.toChar(convert(c)));
+        }
     }
 
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
+    /** Size of _alphabet. */
+    private final int _size;
+
     /** Number of rotor. */
     private int _numRotors;
 
@@ -230,9 +1058,97 @@ class Machine {
     private Rotor[] _allRotors = new Rotor[_numRotors];
 
     /** Rotors I'm currently using in my machine.
-     * The array is ordered (Rotor[0] is my reflector). */
+     * The array is ordered (Rotor[0] is my reflector).  Rotors may be
+     * shared with other machines, so I never change their settings. */
     private Rotor[] _myRotors;
 
+    /** The setting of the rotor in each slot. */
+    private final int[] _pos;
+
+    /** The ring setting of the rotor in each slot. */
+    private final int[] _rings;
+
     /** my plugboard setting. */
     private Permutation _plugboard;
+
+    /** The index in _allRotors of the rotor in each slot, or -1 before
+     *  rotors are inserted. */
+    private final int[] _slotRotor;
+
+    /** The notch table of the rotor in each slot (see
+     *  Rotor.notchTable). */
+    private final boolean[][] _slotNotches;
+
+    /** True iff the rotor in each slot moves. */
+    private final boolean[] _slotMoves;
+
+    /** The slots other than the leftmost and rightmost that hold moving
+     *  rotors, from right to left. */
+    private int[] _pawlSlots = new int[0];
+
+    /** Open-addressed hash table from rotor names to 1 + their indices
+     *  in _allRotors; 0 marks an empty entry. */
+    private final int[] _registry;
+
+    /** Cached complete substitutions, keyed by the rotor positions packed
+     *  as a base-alphabet-size number, or null if caching is off. */
+    private SubstitutionCache _cache;
+
+    /** True iff all rotor positions can be packed into a long key. */
+    private final boolean _keyable;
+
+    /** Starting rotor settings for which _cycle was last computed by
+     *  findCycle, or null. */
+    private int[] _cycleStart;
+
+    /** The result of findCycle for _cycleStart. */
+    private long[] _cycle;
+
+    /** Treatment of bytes outside my alphabet in byte conversions. */
+    private Unknown _unknownBytes = Unknown.REJECT;
+
+    /** Index in my alphabet of the character encoded by each unsigned
+     *  byte value, or -1.  Null until first needed. */
+    private int[] _byteIndex;
+
+    /** The byte encoding each character of my alphabet, by index. */
+    private byte[] _indexByte;
+
+    /** Shared keystreams, or null if they are not used. */
+    private KeystreamCache _keystreams;
+
+    /** True iff my rotors have been set by setRotors or restore and have
+     *  not moved since. */
+    private boolean _atKey;
+
+    /** Where conversions are counted, or null if they are not. */
+    private Metrics _metrics;
+
+    /** Characters converted by convert(int) and not yet added to
+     *  _metrics. */
+    private long _pendingChars;
+
+    /** Sum of the results of step for those characters. */
+    private long _pendingMoves;
+
+    /** Characters counted before their counts are added to _metrics. */
+    private static final int METRICS_BATCH = 1 << 12;
+
+    /** Unit of the count of double steps in the result of step. */
+    static final long DOUBLE_STEP = 1L << 32;
+
+    /** Threads for parallel bulk conversions, or null if they are off. */
+    private ForkJoinPool _pool;
+
+    /** Smallest bulk conversion split between threads. */
+    private int _parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /** Default for the threshold argument of setParallelism. */
+    static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+    /** Chunks per thread in a parallel conversion, to even out load. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** Approximate bytes used by a cache entry beyond its table. */
+    private static final int CACHE_ENTRY_OVERHEAD = 96;
 }
@@ -0,0 +1,420 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author Heming Wu
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Rotors used by most tests. */
+    private static final String[] ROTORS = { "B", "Beta", "III", "IV", "I" };
+
+    /** Return the standard test machine at setting AXLE with plugboard
+     *  (HQ) (EX) (IP) (TR) (BY). */
+    private Machine machine() {
+        return navalMachine(3, ROTORS, "AXLE", "", "(HQ) (EX) (IP) (TR) (BY)");
+    }
+
+    /** Return a pseudo-random message of LEN upper-case letters. */
+    private String message(int len) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            result.append(UPPER_STRING.charAt((i * 7 + i / 26) % 26));
+        }
+        return result.toString();
+    }
+
+    /** Return MSG converted one character at a time by M. */
+    private String convertEach(Machine m, String msg) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            result.append(UPPER.toChar(m.convert(UPPER.toInt(msg.charAt(i)))));
+        }
+        return result.toString();
+    }
+
+    /** Return true iff the naval rotor NAME has a notch at POSN. */
+    private boolean notchAt(String name, int posn) {
+        return NOTCHES.containsKey(name)
+            && NOTCHES.get(name).indexOf(UPPER.toChar(posn)) >= 0;
+    }
+
+    /** Advance slot I of POS, the settings of naval rotors ROTORS, if
+     *  its rotor moves. */
+    private void advance(String[] rotors, int[] pos, int i) {
+        if (NOTCHES.containsKey(rotors[i])) {
+            pos[i] = (pos[i] + 1) % 26;
+        }
+    }
+
+    /** Advance POS, the settings of naval rotors ROTORS, for one
+     *  keypress, as the original Machine.convert did: slot by slot from
+     *  the right, checking each notch by name. */
+    private void referenceStep(String[] rotors, int[] pos) {
+        int last = pos.length - 1;
+        boolean preAtNotch = false, rightHasMoved = false;
+        for (int i = last - 1; i > 0; i -= 1) {
+            boolean rightAtNotch = notchAt(rotors[i + 1], pos[i + 1]);
+            if ((rightAtNotch && !rightHasMoved) || preAtNotch) {
+                preAtNotch = notchAt(rotors[i], pos[i]);
+                advance(rotors, pos, i);
+                if (i + 1 != last && NOTCHES.containsKey(rotors[i])
+                    && !rightHasMoved) {
+                    advance(rotors, pos, i + 1);
+                }
+                rightHasMoved = true;
+            } else {
+                rightHasMoved = false;
+            }
+        }
+        advance(rotors, pos, last);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkKnownMessage() {
+        Machine m = machine();
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     m.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void checkBulkArrays() {
+        String msg = message(1000);
+        String expected = convertEach(machine(), msg);
+        char[] in = ("xx" + msg).toCharArray();
+        char[] out = new char[msg.length() + 3];
+        machine().convert(in, 2, msg.length(), out, 3);
+        assertEquals(expected, new String(out, 3, msg.length()));
+
+        char[] inPlace = msg.toCharArray();
+        machine().convert(inPlace, 0, inPlace.length, inPlace, 0);
+        assertEquals(expected, new String(inPlace));
+        assertEquals(expected, machine().convert(msg));
+    }
+
+    @Test
+    public void checkBulkSplit() {
+        String msg = message(500);
+        Machine m = machine();
+        String first = m.convert(msg.substring(0, 123));
+        String second = m.convert(msg.substring(123));
+        assertEquals(machine().convert(msg), first + second);
+    }
+
+    @Test
+    public void checkBulkBuffers() {
+        String msg = message(300);
+        CharBuffer in = CharBuffer.wrap(msg);
+        CharBuffer out = CharBuffer.allocate(msg.length());
+        machine().convert(in, out);
+        assertFalse(in.hasRemaining());
+        out.flip();
+        assertEquals(machine().convert(msg), out.toString());
+    }
+
+    @Test
+    public void checkCache() {
+        String msg = message(20000);
+        String expected = machine().convert(msg);
+        for (long budget : new long[] { 1, 4096, 1 << 24 }) {
+            Machine m = machine();
+            m.setCacheBudget(budget);
+            assertEquals(expected, m.convert(msg));
+        }
+    }
+
+    @Test
+    public void checkCacheInvalidation() {
+        Machine m = machine();
+        m.setCacheBudget(1 << 20);
+        m.convert(message(100));
+        m.setPlugboard(new Permutation("(AB)", UPPER));
+        m.setRotors("AXLE", "BCDE");
+        Machine fresh = navalMachine(3, ROTORS, "AXLE", "BCDE", "(AB)");
+        String msg = message(100);
+        assertEquals(fresh.convert(msg), m.convert(msg));
+    }
+
+    @Test
+    public void checkSeek() {
+        String[][] orders = {
+            ROTORS, { "C", "VI", "VII", "VIII" },
+            { "B", "Gamma", "VIII", "II", "VI" },
+        };
+        for (String[] rotors : orders) {
+            String setting = "ADEZ".substring(0, rotors.length - 1);
+            int pawls = 0;
+            for (String name : rotors) {
+                pawls += NOTCHES.containsKey(name) ? 1 : 0;
+            }
+            for (long n : new long[] { 0, 1, 25, 26, 677, 20000, 123457 }) {
+                Machine stepped =
+                    navalMachine(pawls, rotors, setting, "", "");
+                Machine sought =
+                    navalMachine(pawls, rotors, setting, "", "");
+                for (long k = 0; k < n; k += 1) {
+                    stepped.convert(0);
+                }
+                sought.seek(n);
+                assertEquals("seek " + n, stepped.convert(message(100)),
+                             sought.convert(message(100)));
+            }
+        }
+    }
+
+    @Test
+    public void checkLongSeek() {
+        long far = 1_000_000_000_000L;
+        Machine m = machine();
+        m.seek(far + 17);
+        String once = m.convert(message(50));
+        m = machine();
+        m.seek(far);
+        m.seek(17);
+        assertEquals(once, m.convert(message(50)));
+    }
+
+    @Test
+    public void checkParallel() {
+        String msg = message(100003);
+        Machine serial = machine();
+        String expected = serial.convert(msg);
+        Machine parallel = machine();
+        parallel.setParallelism(4, 1000);
+        assertEquals(expected, parallel.convert(msg));
+        assertEquals(serial.convert(msg), parallel.convert(msg));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkParallelBadLetter() {
+        Machine m = machine();
+        m.setParallelism(3, 10);
+        m.convert(message(5000) + "a" + message(5000));
+    }
+
+    @Test
+    public void checkBytes() {
+        String msg = message(1000);
+        String expected = machine().convert(msg);
+        byte[] in = msg.getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[in.length];
+        assertEquals(in.length, machine().convert(in, 0, in.length, out, 0));
+        assertEquals(expected, new String(out, StandardCharsets.US_ASCII));
+
+        ByteBuffer src = ByteBuffer.allocateDirect(in.length);
+        src.put(in).flip();
+        ByteBuffer dest = ByteBuffer.allocateDirect(in.length);
+        machine().convert(src, dest);
+        dest.flip();
+        byte[] fromDirect = new byte[dest.remaining()];
+        dest.get(fromDirect);
+        assertArrayEquals(out, fromDirect);
+    }
+
+    @Test
+    public void checkUnknownBytes() {
+        byte[] in = "HEL LO\nWORLD".getBytes(StandardCharsets.US_ASCII);
+        String expected = machine().convert("HELLOWORLD");
+
+        Machine m = machine();
+        m.setUnknownBytes(Machine.Unknown.SKIP);
+        byte[] skipped = in.clone();
+        int n = m.convert(skipped, 0, skipped.length, skipped, 0);
+        assertEquals(expected,
+                     new String(skipped, 0, n, StandardCharsets.US_ASCII));
+
+        m = machine();
+        m.setUnknownBytes(Machine.Unknown.PASS);
+        byte[] passed = new byte[in.length];
+        assertEquals(in.length, m.convert(in, 0, in.length, passed, 0));
+        assertEquals(expected.substring(0, 3) + " " + expected.substring(3, 5)
+                     + "\n" + expected.substring(5),
+                     new String(passed, StandardCharsets.US_ASCII));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRejectedBytes() {
+        byte[] in = "HELLO WORLD".getBytes(StandardCharsets.US_ASCII);
+        machine().convert(in, 0, in.length, in, 0);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBulkBadLetter() {
+        machine().convert("HELLOworld");
+    }
+
+    @Test
+    public void checkSharedRotors() throws InterruptedException {
+        String msg = message(5000);
+        String[] settings = { "AXLE", "BQQZ", "ZZZZ", "MEKA" };
+        String[] expected = new String[settings.length];
+        for (int k = 0; k < settings.length; k += 1) {
+            expected[k] =
+                navalMachine(3, ROTORS, settings[k], "BCDE", "(HQ) (EX)")
+                .convert(msg);
+        }
+        java.util.List<Rotor> shared = navalRotors();
+        String[] actual = new String[settings.length];
+        Thread[] threads = new Thread[settings.length];
+        for (int k = 0; k < settings.length; k += 1) {
+            int j = k;
+            threads[k] = new Thread(() -> {
+                Machine m = new Machine(UPPER, 5, 3, shared);
+                m.insertRotors(ROTORS);
+                m.setRotors(settings[j], "BCDE");
+                m.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+                StringBuilder out = new StringBuilder();
+                for (int i = 0; i < msg.length(); i += 100) {
+                    out.append(m.convert(msg.substring(i, i + 100)));
+                }
+                actual[j] = out.toString();
+            });
+            threads[k].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadSetting() {
+        machine().setRotors("AXL*", "");
+    }
+
+    @Test
+    public void checkSnapshotRestore() {
+        Machine m = machine();
+        Machine.Snapshot start = m.snapshot();
+        String first = m.convert("FROMHISSHOULDERHIAWATHA");
+        Machine.Snapshot middle = m.snapshot();
+        String second = m.convert("TOOKTHECAMERAOFROSEWOOD");
+        assertNotEquals(start, middle);
+
+        m.insertRotors(new String[] { "C", "Gamma", "VII", "II", "V" });
+        m.setRotors("QQQQ", "ABCD");
+        m.setPlugboard(new Permutation("(AZ)", UPPER));
+        Machine.Snapshot other = m.snapshot();
+        String third = m.convert("HIAWATHA");
+
+        m.restore(middle);
+        assertEquals(second, m.convert("TOOKTHECAMERAOFROSEWOOD"));
+        m.restore(start);
+        assertEquals(start, m.snapshot());
+        assertEquals(start.hashCode(), m.snapshot().hashCode());
+        assertEquals(first, m.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(middle, m.snapshot());
+        m.restore(other);
+        assertEquals(third, m.convert("HIAWATHA"));
+    }
+
+    @Test
+    public void checkSnapshotManyPlugboards() {
+        Machine m = machine();
+        Machine.Snapshot[] snaps = new Machine.Snapshot[1000];
+        String[] expected = new String[snaps.length];
+        for (int i = 0; i < snaps.length; i += 1) {
+            m.setPlugboard(new Permutation("(" + UPPER.toChar(i % 13)
+                                           + UPPER.toChar(13 + i / 13 % 13)
+                                           + ")", UPPER));
+            snaps[i] = m.snapshot();
+            assertEquals(snaps[i], m.snapshot());
+            expected[i] = m.convert("HIAWATHA");
+        }
+        for (int i = snaps.length - 1; i >= 0; i -= 7) {
+            m.restore(snaps[i]);
+            assertEquals(snaps[i], m.snapshot());
+            assertEquals(expected[i], m.convert("HIAWATHA"));
+        }
+        assertNotEquals(snaps[0], snaps[26]);
+    }
+
+    @Test
+    public void checkSnapshotCache() {
+        Machine m = machine();
+        m.setCacheBudget(1 << 20);
+        Machine.Snapshot start = m.snapshot();
+        String expected = m.convert(message(300));
+        m.setRotors("AXLE", "ZZZZ");
+        m.convert(message(300));
+        m.restore(start);
+        assertEquals(expected, m.convert(message(300)));
+    }
+
+    @Test
+    public void checkRotorIndices() {
+        Machine m = machine();
+        char[] line = "B Beta III IV I Gamma".toCharArray();
+        int[] indices = new int[ROTORS.length];
+        for (int i = 0, start = 0; i < ROTORS.length; i += 1) {
+            int end = start + ROTORS[i].length();
+            indices[i] = m.rotorIndex(line, start, end);
+            assertEquals(ROTORS[i],
+                         navalRotors().get(indices[i]).name());
+            start = end + 1;
+        }
+        assertEquals(-1, m.rotorIndex(line, 0, 4));
+        assertEquals(-1, m.rotorIndex(line, 2, 5));
+
+        String expected = m.convert(message(100));
+        m.insertRotors(new String[] { "C", "Gamma", "VII", "II", "V" });
+        m.insertRotors(indices);
+        int[] setting = { 0, UPPER.toInt('A'), UPPER.toInt('X'),
+                          UPPER.toInt('L'), UPPER.toInt('E') };
+        m.setRotors(setting, new int[ROTORS.length]);
+        assertEquals(expected, m.convert(message(100)));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownRotor() {
+        machine().insertRotors(new String[] { "B", "Beta", "III", "IV",
+                                              "XI" });
+    }
+
+    @Test
+    public void checkStepping() {
+        String[][] orders = {
+            { "B", "Beta", "I", "II", "III" },
+            { "C", "Gamma", "VI", "VII", "VIII" },
+            { "B", "VI", "VIII", "V", "VII" },
+            { "B", "I", "VI", "Beta", "VII" },
+        };
+        int[] pawls = { 3, 3, 4, 3 };
+        for (int k = 0; k < orders.length; k += 1) {
+            for (String setting : new String[] { "AAAA", "ZMZL", "AMDY" }) {
+                Machine m = navalMachine(pawls[k], orders[k], setting, "",
+                                         "");
+                int[] pos = m.positions();
+                for (int i = 0; i < 2000; i += 1) {
+                    referenceStep(orders[k], pos);
+                    m.convert(0);
+                    assertArrayEquals(pos, m.positions());
+                }
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSnapshotOtherMachine() {
+        machine().restore(machine().snapshot());
+    }
+
+}
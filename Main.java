@@ -1,8 +1,28 @@
 package enigma;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -10,6 +30,8 @@ import java.util.NoSuchElementException;
 import java.util.Scanner;
 import  java.util.Arrays;
 
+import jdk.jfr.FlightRecorder;
+
 import static enigma.EnigmaException.*;
 
 /** Enigma simulator.
@@ -25,7 +47,62 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  The file names may be preceded by options:
+     *    --parallel=N     convert long messages with N threads.
+     *    --parallel-threshold=N
+     *                     only split messages of at least N characters
+     *                     between threads.
+     *    --group=N        print output in groups of N characters rather
+     *                     than five.
+     *    --width=N        start a new output line rather than make one
+     *                     longer than N characters.
+     *    --mmap           read the input file through memory-mapped
+     *                     windows and write the output file through a
+     *                     direct buffer, converting message bytes
+     *                     straight from the mapped input into the output
+     *                     buffer.  Needs an input and an output file, an
+     *                     alphabet of ASCII characters, and a default
+     *                     character set of UTF-8 or US-ASCII.  Messages
+     *                     are converted on one thread without the
+     *                     keystream cache, so it does not combine with
+     *                     --parallel or --keystream-cache.
+     *    --compile        save the configuration file as a binary image
+     *                     next to it (its name followed by .img), which
+     *                     later runs load instead of parsing the text
+     *                     while the text is unchanged.  Takes no message
+     *                     files.
+     *    --serve=ADDRESS  rather than converting files, serve requests
+     *                     on ADDRESS (PORT or HOST:PORT for TCP, or
+     *                     unix:PATH) until killed, as described in
+     *                     Server.  Takes no message files.
+     *    --serve-threads=N
+     *                     handle connections on N threads (by default,
+     *                     one per processor).
+     *    --stats          count characters, messages, settings lines,
+     *                     rotor advances and bytes, time messages and
+     *                     settings lines, and print a report on the
+     *                     standard error at the end.  With --serve, each
+     *                     request's message is one message line, and
+     *                     the report is printed when the server is
+     *                     killed; with --sweep, message lines are not
+     *                     timed.
+     *    --sweep=FILE     rather than reading settings and message lines,
+     *                     read one key (a settings line) per input line
+     *                     and print the message lines in FILE converted
+     *                     under each key, as for a settings line giving
+     *                     that key followed by those lines (see
+     *                     KeySweep).  --parallel=N uses N threads.
+     *    --keystream-cache=BYTES
+     *                     keep the keystreams of keys used repeatedly, in
+     *                     about BYTES bytes, and convert the start of
+     *                     each message under such a key by lookup (see
+     *                     KeystreamCache).  Also applies to --serve.
+     *    --keystream-length=N
+     *                     keep keystreams for at most the first N
+     *                     characters of each message (default 4096),
+     *                     or as many as fit in the cache's BYTES. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -38,25 +115,127 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        args = parseOptions(args);
+        if (_keystreamBudget > 0) {
+            _keystreams = new KeystreamCache(_keystreamBudget,
+                                             _keystreamLength);
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
+        if (_compile && args.length != 1) {
+            throw error("--compile takes only a configuration file");
+        }
+        if (_serveAddress != null && args.length != 1) {
+            throw error("--serve takes only a configuration file");
+        }
+        if (_mapFiles && (args.length != 3 || _compile || _sweepPath != null
+                          || _parallelism > 1 || _keystreams != null)) {
+            throw error("--mmap needs input and output files, and no "
+                        + "--parallel, --keystream-cache, --compile or "
+                        + "--sweep");
+        }
 
-        _config = getInput(args[0]);
+        try {
+            _configPath = Paths.get(args[0]);
+        } catch (InvalidPathException excp) {
+            throw error("could not open %s", args[0]);
+        }
+
+        if (_mapFiles) {
+            _inputChannel = getChannel(args[1], StandardOpenOption.READ);
+            _outputChannel =
+                getChannel(args[2], StandardOpenOption.WRITE,
+                           StandardOpenOption.CREATE,
+                           StandardOpenOption.TRUNCATE_EXISTING);
+            return;
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = getReader(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = new InputStreamReader(counting(System.in));
         }
 
         if (args.length > 2) {
             _output = getOutput(args[2]);
+        } else if (_metrics != null) {
+            _output = new PrintStream(counting(System.out));
         } else {
             _output = System.out;
         }
     }
 
+    /** Record the options at the start of ARGS (see comment on main),
+     *  returning the remaining arguments. */
+    private String[] parseOptions(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            String[] option = args[k].split("=", 2);
+            switch (option[0]) {
+            case "--parallel":
+                _parallelism = intOption(option);
+                break;
+            case "--parallel-threshold":
+                _parallelThreshold = intOption(option);
+                break;
+            case "--group":
+                _groupSize = intOption(option);
+                break;
+            case "--width":
+                _width = intOption(option);
+                break;
+            case "--mmap":
+                _mapFiles = true;
+                break;
+            case "--compile":
+                _compile = true;
+                break;
+            case "--serve":
+                if (option.length < 2) {
+                    throw error("--serve needs an address");
+                }
+                _serveAddress = option[1];
+                break;
+            case "--serve-threads":
+                _serveThreads = intOption(option);
+                break;
+            case "--sweep":
+                if (option.length < 2) {
+                    throw error("--sweep needs a plaintext file");
+                }
+                _sweepPath = option[1];
+                break;
+            case "--keystream-cache":
+                _keystreamBudget = intOption(option);
+                break;
+            case "--keystream-length":
+                _keystreamLength = intOption(option);
+                break;
+            case "--stats":
+                _metrics = new Metrics();
+                break;
+            default:
+                throw error("unknown option %s", option[0]);
+            }
+        }
+        return Arrays.copyOfRange(args, k, args.length);
+    }
+
+    /** Return the positive integer value of OPTION, a name and value
+     *  pair. */
+    private int intOption(String[] option) {
+        try {
+            int value = Integer.parseInt(option.length > 1 ? option[1] : "");
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("%s needs a positive integer value", option[0]);
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -66,53 +245,459 @@ public final class Main {
         }
     }
 
+    /** Return a Reader reading from the file named NAME. */
+    private Reader getReader(String name) {
+        try {
+            return new InputStreamReader(counting(new FileInputStream(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel for the file named NAME, opened with OPTIONS. */
+    private FileChannel getChannel(String name, OpenOption... options) {
+        try {
+            return FileChannel.open(Paths.get(name), options);
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /** Return a PrintStream writing to the file named NAME. */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new PrintStream(counting(new FileOutputStream(name)));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Return IN, counting the bytes read from it if keeping
+     *  statistics. */
+    private InputStream counting(InputStream in) {
+        return _metrics == null ? in : _metrics.counting(in);
+    }
+
+    /** Return OUT, counting the bytes written to it if keeping
+     *  statistics. */
+    private OutputStream counting(OutputStream out) {
+        return _metrics == null ? out : _metrics.counting(out);
+    }
+
     /** Configure an Enigma machine from the contents of configuration
-     *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
+     *  file _configPath and apply it to the messages in _input, sending the
+     *  results to _output.  Input is processed in one pass through
+     *  fixed-size buffers, so memory use does not depend on the length
+     *  of lines.  A line whose first non-blank character is '*' is a
+     *  settings line; any other line is a message line, whose blanks
+     *  are ignored. */
     private void process() {
+        if (_compile) {
+            parseConfig().write(ConfigImage.imageFor(_configPath),
+                                _configPath);
+            return;
+        }
+        if (_serveAddress != null) {
+            serve();
+            return;
+        }
+        if (_sweepPath != null) {
+            sweep();
+            return;
+        }
         Machine enigma = readConfig();
-        String settings = _input.nextLine();
-        if (!settings.contains("*")) {
-            throw error("Please specify your settings");
-        } else {
-            settings = settings.replace("*", "");
+        enigma.setMetrics(_metrics);
+        enigma.setKeystreamCache(_keystreams);
+        _settings = new Settings(enigma);
+        enigma.setParallelism(_parallelism, _parallelThreshold);
+        _message = new char[_parallelism > 1
+                            ? Math.max(BUFFER_SIZE, _parallelThreshold)
+                            : BUFFER_SIZE];
+        if (_mapFiles) {
+            processMapped(enigma);
+            return;
         }
-        setUp(enigma, settings);
-        String text;
+        _groups = new GroupWriter(new OutputStreamWriter(_output),
+                                  _groupSize, _width);
+
+        char[] in = new char[BUFFER_SIZE];
+        char[] settings = new char[MAX_SETTINGS_LENGTH];
+        int kind = BLANK, settingsLen = 0;
+        boolean configured = false, afterCR = false, lineOpen = false;
+        try {
+            for (int n = read(in); n > 0; n = read(in)) {
+                for (int i = 0; i < n; i += 1) {
+                    char c = in[i];
+                    if (afterCR && c == '\n') {
+                        afterCR = false;
+                        continue;
+                    }
+                    afterCR = c == '\r';
+                    lineOpen = !isLineEnd(c);
+                    if (!lineOpen) {
+                        configured = endLine(enigma, kind, settings,
+                                             settingsLen, configured);
+                        kind = BLANK;
+                        settingsLen = 0;
+                    } else if (kind == SETTINGS) {
+                        if (settingsLen == MAX_SETTINGS_LENGTH) {
+                            throw error("settings line too long");
+                        }
+                        settings[settingsLen++] = c;
+                    } else if (c == ' ') {
+                        continue;
+                    } else if (kind == BLANK && c == '*') {
+                        kind = SETTINGS;
+                    } else if (!configured) {
+                        throw error("Please specify your settings");
+                    } else {
+                        if (kind != MESSAGE) {
+                            kind = MESSAGE;
+                            startMessage();
+                        }
+                        _message[_messageLen++] = c;
+                        if (_messageLen == _message.length) {
+                            convertMessage(enigma);
+                        }
+                    }
+                }
+            }
+            if (lineOpen || !configured) {
+                endLine(enigma, kind, settings, settingsLen, configured);
+            }
+        } finally {
+            _groups.flush();
+        }
+        if (_metrics != null) {
+            enigma.publishMetrics();
+            report();
+        }
+    }
 
-        Boolean hasLine = _input.hasNextLine();
-        if (!hasLine) {
-            System.exit(0);
-        }
-        String nextLine = _input.nextLine();
-        while (hasLine && !(nextLine.contains("*"))) {
-            hasLine = _input.hasNextLine();
-            text = nextLine;
-            String output = enigma.convert(text.replace(" ", ""));
-            printMessageLine(output);
-            if (hasLine) {
-                nextLine = _input.nextLine();
+    /** Convert the input as process does, reading _inputChannel in
+     *  memory-mapped windows and writing bytes to _outputChannel with
+     *  ENIGMA.  Each run of message bytes is converted through ENIGMA's
+     *  byte table straight from the window into the output buffer;
+     *  only settings lines are decoded into characters. */
+    private void processMapped(Machine enigma) {
+        Charset charset = Charset.defaultCharset();
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        if ((!utf8 && !charset.equals(StandardCharsets.US_ASCII))
+            || !isAscii(_alphabet)) {
+            throw error("--mmap needs an ASCII alphabet and a UTF-8 or "
+                        + "US-ASCII character set");
+        }
+        _groups = new GroupWriter(_outputChannel, _groupSize, _width);
+        byte[] settingsBytes = new byte[MAX_SETTINGS_LENGTH];
+        char[] settings = new char[MAX_SETTINGS_LENGTH];
+        int kind = BLANK, settingsLen = 0;
+        boolean configured = false, afterCR = false, lineOpen = false;
+        try {
+            long size = _inputChannel.size();
+            for (long at = 0; at < size;) {
+                long len = Math.min(MAP_WINDOW, size - at);
+                MappedByteBuffer window =
+                    _inputChannel.map(FileChannel.MapMode.READ_ONLY, at, len);
+                int limit = window.limit(), p = 0;
+                int end = at + len == size ? limit : limit - MAX_LINE_END;
+                while (p < end) {
+                    byte b = window.get(p);
+                    if (afterCR && b == '\n') {
+                        afterCR = false;
+                        p += 1;
+                        continue;
+                    }
+                    afterCR = b == '\r';
+                    int lineEnd = lineEnd(window, p, utf8);
+                    lineOpen = lineEnd == 0;
+                    if (!lineOpen) {
+                        if (kind == SETTINGS) {
+                            settingsLen =
+                                decode(charset, settingsBytes, settingsLen,
+                                       settings);
+                        }
+                        configured = endLine(enigma, kind, settings,
+                                             settingsLen, configured);
+                        kind = BLANK;
+                        settingsLen = 0;
+                        p += lineEnd;
+                    } else if (kind == SETTINGS) {
+                        if (settingsLen == MAX_SETTINGS_LENGTH) {
+                            throw error("settings line too long");
+                        }
+                        settingsBytes[settingsLen++] = b;
+                        p += 1;
+                    } else if (b == ' ') {
+                        p += 1;
+                    } else if (kind == BLANK && b == '*') {
+                        kind = SETTINGS;
+                        p += 1;
+                    } else if (!configured) {
+                        throw error("Please specify your settings");
+                    } else {
+                        if (kind != MESSAGE) {
+                            kind = MESSAGE;
+                            startMessage();
+                        }
+                        int q = p + 1;
+                        while (q < limit && isMessageByte(window.get(q))) {
+                            q += 1;
+                        }
+                        window.limit(q).position(p);
+                        _groups.write(window, enigma);
+                        window.limit(limit);
+                        _lineLength += q - p;
+                        p = q;
+                    }
+                }
+                at += p;
             }
-            if (nextLine.contains(("*"))) {
-                settings = nextLine.replace("*", "");
-                setUp(enigma, settings);
-                nextLine = _input.nextLine();
+            if (lineOpen || !configured) {
+                if (kind == SETTINGS) {
+                    settingsLen = decode(charset, settingsBytes, settingsLen,
+                                         settings);
+                }
+                endLine(enigma, kind, settings, settingsLen, configured);
+            }
+        } catch (IOException excp) {
+            throw error("could not read input");
+        } finally {
+            _groups.flush();
+        }
+        if (_metrics != null) {
+            try {
+                _metrics.add(Metrics.Count.BYTES_READ, _inputChannel.size());
+                _metrics.add(Metrics.Count.BYTES_WRITTEN,
+                             _outputChannel.position());
+            } catch (IOException excp) {
+                throw error("could not measure files");
             }
+            enigma.publishMetrics();
+            report();
+        }
+    }
+
+    /** Return the length of the line end at P in WINDOW, or 0 if there
+     *  is none.  With UTF8, the encodings of the line ends outside ASCII
+     *  (see isLineEnd) count too; they are at most MAX_LINE_END bytes. */
+    private static int lineEnd(ByteBuffer window, int p, boolean utf8) {
+        byte b = window.get(p);
+        if (b == '\n' || b == '\r') {
+            return 1;
+        } else if (b >= 0 || !utf8) {
+            return 0;
+        }
+        int limit = window.limit();
+        if (b == (byte) 0xc2) {
+            return p + 1 < limit && window.get(p + 1) == (byte) 0x85 ? 2 : 0;
+        } else if (b == (byte) 0xe2 && p + 2 < limit
+                   && window.get(p + 1) == (byte) 0x80) {
+            byte c = window.get(p + 2);
+            return c == (byte) 0xa8 || c == (byte) 0xa9 ? 3 : 0;
         }
+        return 0;
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+    /** Return true iff B may continue a run of message bytes: it is an
+     *  ASCII character that is neither a blank nor a line end.  Other
+     *  bytes are examined one at a time. */
+    private static boolean isMessageByte(byte b) {
+        return b >= 0 && b != ' ' && b != '\n' && b != '\r';
+    }
+
+    /** Decode the first LEN bytes of BYTES with CHARSET into CHARS,
+     *  returning the number of characters. */
+    private static int decode(Charset charset, byte[] bytes, int len,
+                              char[] chars) {
+        CharBuffer text = charset.decode(ByteBuffer.wrap(bytes, 0, len));
+        int n = text.remaining();
+        text.get(chars, 0, n);
+        return n;
+    }
+
+    /** Return true iff all characters of ALPHA and of the output line
+     *  separator are ASCII. */
+    private static boolean isAscii(Alphabet alpha) {
+        String text = GroupWriter.LINE_SEPARATOR + alpha.chars();
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Print the statistics kept so far on the standard error. */
+    private void report() {
+        System.err.print(_metrics.snapshot());
+        if (_keystreams != null) {
+            System.err.println(_keystreams);
+        }
+    }
+
+    /** Note the start of a message line. */
+    private void startMessage() {
+        _lineLength = 0;
+        if (_metrics != null) {
+            _lineStart = System.nanoTime();
+        }
+        if (FlightRecorder.isInitialized()) {
+            _event = new MessageEvent();
+            if (_event.isEnabled()) {
+                _event.begin();
+            } else {
+                _event = null;
+            }
+        }
+    }
+
+    /** Note the end of a message line, begun by startMessage, once it
+     *  has been converted and written. */
+    private void finishMessage() {
+        if (_metrics != null) {
+            _metrics.add(Metrics.Count.MESSAGES, 1);
+            _metrics.record(Metrics.Distribution.MESSAGE_LENGTH, _lineLength);
+            _metrics.record(Metrics.Distribution.MESSAGE_NANOS,
+                            System.nanoTime() - _lineStart);
+        }
+        if (_event != null) {
+            _event.characters = (int) Math.min(Integer.MAX_VALUE,
+                                               _lineLength);
+            _event.commit();
+            _event = null;
+        }
+    }
+
+    /** Finish an input line of kind KIND, where SETTINGS[0 .. LEN) holds
+     *  the text of a settings line.  CONFIGURED indicates whether ENIGMA
+     *  has been set up.  Returns true iff ENIGMA is set up
+     *  afterwards. */
+    private boolean endLine(Machine enigma, int kind, char[] settings,
+                            int len, boolean configured) {
+        if (kind == SETTINGS) {
+            _settings.apply(settings, len);
+            return true;
+        } else if (!configured) {
+            throw error("Please specify your settings");
+        }
+        endMessageLine(enigma);
+        if (kind == MESSAGE) {
+            finishMessage();
+        }
+        return true;
+    }
+
+    /** Read up to BUF.length characters from _input into BUF, returning
+     *  the number read, or a value <= 0 at the end of the input. */
+    private int read(char[] buf) {
+        try {
+            return _input.read(buf);
+        } catch (IOException excp) {
+            throw error("could not read input");
+        }
+    }
+
+    /** Return true iff C ends an input line. */
+    static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085'
+            || c == '\u2028' || c == '\u2029';
+    }
+
+    /** Convert and print the rest of the current message line with
+     *  ENIGMA, and end the output line. */
+    private void endMessageLine(Machine enigma) {
+        convertMessage(enigma);
+        _groups.endLine();
+    }
+
+    /** Convert the characters buffered in _message with ENIGMA and print
+     *  them, continuing the current output line. */
+    private void convertMessage(Machine enigma) {
+        enigma.convert(_message, 0, _messageLen, _message, 0);
+        _lineLength += _messageLen;
+        _groups.write(_message, 0, _messageLen);
+        _messageLen = 0;
+    }
+
+    /** Serve requests on _serveAddress until killed. */
+    private void serve() {
+        Server server = new Server(loadConfig(),
+                                   Server.address(_serveAddress),
+                                   _serveThreads);
+        server.setKeystreamCache(_keystreams);
+        server.setMetrics(_metrics);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            if (_metrics != null) {
+                report();
+            }
+        }));
+        System.err.printf("Serving on %s%n", server.address());
+        server.run();
+    }
+
+    /** Convert the text in _sweepPath under each key in _input. */
+    private void sweep() {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(_sweepPath)),
+                              Charset.defaultCharset());
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", _sweepPath);
+        }
+        KeySweep sweep = new KeySweep(loadConfig(), text);
+        sweep.setParallelism(_parallelism);
+        sweep.setMetrics(_metrics);
+        GroupWriter groups = new GroupWriter(new OutputStreamWriter(_output),
+                                             _groupSize, _width);
+        try {
+            sweep.run(_input, groups);
+        } finally {
+            groups.flush();
+        }
+        if (_metrics != null) {
+            report();
+        }
+    }
+
+    /** Return the configuration in the configuration file _configPath,
+     *  loading its compiled image instead if that is up to date. */
+    private ConfigImage loadConfig() {
+        ConfigLoadEvent event =
+            FlightRecorder.isInitialized() ? new ConfigLoadEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        ConfigImage config =
+            ConfigImage.read(ConfigImage.imageFor(_configPath), _configPath);
+        boolean fromImage = config != null;
+        if (config == null) {
+            config = parseConfig();
+        }
+        if (event != null) {
+            event.path = _configPath.toString();
+            event.fromImage = fromImage;
+            event.rotors = config.rotors().size();
+            event.commit();
+        }
+        return config;
+    }
+
+    /** Return an Enigma machine configured from the configuration file
+     *  _configPath. */
     private Machine readConfig() {
+        ConfigImage config = loadConfig();
+        _alphabet = config.alphabet();
+        _numRotors = config.numRotors();
+        _numPawls = config.pawls();
+        _allRotors = config.rotors();
+        return new Machine(_alphabet, _numRotors, _numPawls, _allRotors);
+    }
+
+    /** Return the configuration in the text configuration file
+     *  _configPath. */
+    private ConfigImage parseConfig() {
+        _config = getInput(_configPath.toString());
         try {
             _alphabet = new Alphabet(_config.next());
             if (_alphabet.contains('(') || _alphabet.contains(')')
@@ -136,7 +721,8 @@ public final class Main {
                 Rotor r = readRotor();
                 _allRotors.add(r);
             }
-            return new Machine(_alphabet, _numRotors, _numPawls, _allRotors);
+            return new ConfigImage(_alphabet, _numRotors, _numPawls,
+                                   _allRotors);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
@@ -183,67 +769,54 @@ public final class Main {
         }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        String[] raw;
-        raw = settings.trim().split(" ");
-        String resultString = ""; String plugboardString = "";
-        for (int i = 0; i < raw.length; i++) {
-            if (!raw[i].isEmpty() && !raw[i].contains("(")) {
-                resultString += raw[i];
-                resultString += " ";
-            }
-            if (!raw[i].isEmpty() && raw[i].contains("(")) {
-                plugboardString += raw[i];
-            }
-        }
-
-
-        String[] result = resultString.split(" ");
-        if (result.length != _numRotors + 1
-                && result.length != _numRotors + 2) {
-            throw new EnigmaException("Settings doesn't match "
-                    + "the number of moving rotors.");
-        }
-        String initialSetting = "";
-
-        if (result.length == _numRotors + 1) {
-            initialSetting = result[result.length - 1];
-        } else {
-            initialSetting = result[result.length - 2];
-            ringSettings = result[result.length - 1];
-        }
-        String[] rotors = Arrays.copyOfRange(result, 0, result.length - 1);
-        if (result.length == _numRotors + 2) {
-            rotors = Arrays.copyOfRange(result, 0, result.length - 2);
-        }
-        Permutation plugboard = new Permutation(plugboardString, _alphabet);
-        M.insertRotors(rotors);
-        M.setPlugboard(plugboard);
-        M.setRotors(initialSetting, ringSettings);
-    }
-
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        int init = 0;
-        while (init < msg.length() - 5) {
-            _output.print(msg.substring(init, init + 5) + " ");
-            init += 5;
-        }
-        _output.println(msg.substring(init));
-    }
-
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private Reader _input;
 
     /** Source of machine configuration. */
     private Scanner _config;
 
+    /** The text configuration file. */
+    private Path _configPath;
+
+    /** True iff the configuration should be compiled to an image rather
+     *  than used. */
+    private boolean _compile;
+
+    /** Statistics being kept, or null if they are not. */
+    private Metrics _metrics;
+
+    /** Characters in the current message line so far. */
+    private long _lineLength;
+
+    /** Time at which the current message line began. */
+    private long _lineStart;
+
+    /** Flight Recorder event for the current message line, or null if
+     *  none is being recorded. */
+    private MessageEvent _event;
+
+    /** Address to serve requests on, or null to convert files. */
+    private String _serveAddress;
+
+    /** File holding the text to convert under each key, or null if not
+     *  sweeping keys. */
+    private String _sweepPath;
+
+    /** Byte budget of the keystream cache, or 0 if there is none. */
+    private int _keystreamBudget;
+
+    /** Greatest length of the keystreams cached. */
+    private int _keystreamLength = 4096;
+
+    /** Keystreams shared by my machines, or null. */
+    private KeystreamCache _keystreams;
+
+    /** Number of threads handling server connections. */
+    private int _serveThreads = Runtime.getRuntime().availableProcessors();
+
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
@@ -256,9 +829,55 @@ public final class Main {
     /** Number of pawls (moving rotors). */
     private int _numPawls;
 
-    /** Ring settings. */
-    private String ringSettings = "";
+    /** Applies settings lines to the machine. */
+    private Settings _settings;
 
     /** Just a place holder when calling next. */
     private String temp;
+
+    /** Formats converted messages for _output. */
+    private GroupWriter _groups;
+
+    /** Message characters waiting to be converted. */
+    private char[] _message;
+
+    /** Number of characters in _message. */
+    private int _messageLen;
+
+    /** Kinds of input line: not yet known (so far blank), settings, and
+     *  message. */
+    private static final int BLANK = 0, SETTINGS = 1, MESSAGE = 2;
+
+    /** Size of the input, message, and output buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Longest settings line accepted. */
+    private static final int MAX_SETTINGS_LENGTH = 1 << 16;
+
+    /** True iff file input and output should be memory mapped. */
+    private boolean _mapFiles;
+
+    /** Input file, when mapping files. */
+    private FileChannel _inputChannel;
+
+    /** Output file, when mapping files. */
+    private FileChannel _outputChannel;
+
+    /** Largest part of the input mapped at once. */
+    private static final long MAP_WINDOW = 1 << 28;
+
+    /** Most bytes in the encoding of a line end. */
+    private static final int MAX_LINE_END = 3;
+
+    /** Characters per output group. */
+    private int _groupSize = 5;
+
+    /** Maximum characters per output line, or 0 for no limit. */
+    private int _width;
+
+    /** Number of threads converting each message. */
+    private int _parallelism = 1;
+
+    /** Shortest message converted by more than one thread. */
+    private int _parallelThreshold = Machine.DEFAULT_PARALLEL_THRESHOLD;
 }
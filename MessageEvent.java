@@ -0,0 +1,22 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Flight Recorder event covering the reading, conversion and writing
+ *  of one message line by Main.
+ *  @author Heming Wu
+ */
+@Name("enigma.Message")
+@Label("Enigma Message")
+@Category("Enigma")
+@Description("Conversion of one message line")
+class MessageEvent extends jdk.jfr.Event {
+
+    /** Characters in the message. */
+    @Label("Characters")
+    int characters;
+
+}
@@ -0,0 +1,282 @@
+package enigma;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Formatter;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters and histograms describing conversions, which any number of
+ *  threads may update at once.  Each counter and histogram bucket is a
+ *  LongAdder, which spreads contended updates over several cells, and
+ *  machines add their per-character counts in batches, so keeping
+ *  metrics is cheap; a machine or parser without a Metrics does no
+ *  counting at all.
+ *  @author Heming Wu
+ */
+class Metrics {
+
+    /** The quantities counted. */
+    enum Count {
+        /** Characters converted by machines. */
+        CHARACTERS("characters"),
+        /** Message lines converted. */
+        MESSAGES("messages"),
+        /** Settings lines applied. */
+        RECONFIGURATIONS("reconfigurations"),
+        /** Single-position rotor movements during conversions. */
+        ROTOR_ADVANCES("rotor advances"),
+        /** Rotor movements caused by the rotor's own notch rather than
+         *  that of its right neighbor. */
+        DOUBLE_STEPS("double steps"),
+        /** Bytes of input read. */
+        BYTES_READ("bytes read"),
+        /** Bytes of output written. */
+        BYTES_WRITTEN("bytes written");
+
+        /** A count described as LABEL. */
+        Count(String label) {
+            _label = label;
+        }
+
+        /** Description used in reports. */
+        private final String _label;
+    }
+
+    /** The quantities whose distributions are recorded. */
+    enum Distribution {
+        /** Characters in each message line. */
+        MESSAGE_LENGTH("message length (chars)"),
+        /** Time to read, convert and write each message line. */
+        MESSAGE_NANOS("message time (ns)"),
+        /** Time to apply each settings line. */
+        SETUP_NANOS("setup time (ns)");
+
+        /** A distribution described as LABEL. */
+        Distribution(String label) {
+            _label = label;
+        }
+
+        /** Description used in reports. */
+        private final String _label;
+    }
+
+    /** Empty metrics. */
+    Metrics() {
+        for (int i = 0; i < _counts.length; i += 1) {
+            _counts[i] = new LongAdder();
+        }
+        for (int i = 0; i < _histograms.length; i += 1) {
+            _histograms[i] = new Histogram();
+        }
+    }
+
+    /** Add N to COUNT. */
+    void add(Count count, long n) {
+        _counts[count.ordinal()].add(n);
+    }
+
+    /** Record VALUE, which must be non-negative, in DIST. */
+    void record(Distribution dist, long value) {
+        _histograms[dist.ordinal()].record(value);
+    }
+
+    /** Return a copy of my present values.  Updates made while the copy
+     *  is taken may be partly included. */
+    Snapshot snapshot() {
+        long[] counts = new long[_counts.length];
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] = _counts[i].sum();
+        }
+        Summary[] summaries = new Summary[_histograms.length];
+        for (int i = 0; i < summaries.length; i += 1) {
+            summaries[i] = _histograms[i].summary();
+        }
+        return new Snapshot(counts, summaries);
+    }
+
+    /** Return IN, counting the bytes read from it as BYTES_READ. */
+    InputStream counting(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    add(Count.BYTES_READ, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) {
+                    add(Count.BYTES_READ, n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /** Return OUT, counting the bytes written to it as BYTES_WRITTEN. */
+    OutputStream counting(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                add(Count.BYTES_WRITTEN, 1);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len)
+                throws IOException {
+                out.write(buf, off, len);
+                add(Count.BYTES_WRITTEN, len);
+            }
+        };
+    }
+
+    /** A histogram of non-negative longs with one bucket for each power
+     *  of two. */
+    private static class Histogram {
+
+        /** An empty histogram. */
+        Histogram() {
+            for (int i = 0; i < _buckets.length; i += 1) {
+                _buckets[i] = new LongAdder();
+            }
+        }
+
+        /** Record VALUE. */
+        void record(long value) {
+            _buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            _sum.add(value);
+            _max.accumulate(value);
+        }
+
+        /** Return a summary of my present contents. */
+        Summary summary() {
+            long[] buckets = new long[_buckets.length];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i += 1) {
+                buckets[i] = _buckets[i].sum();
+                count += buckets[i];
+            }
+            return new Summary(buckets, count, _sum.sum(), _max.get());
+        }
+
+        /** Number of values recorded in each bucket: bucket 0 holds 0,
+         *  and bucket K > 0 holds values in [2**(K-1), 2**K). */
+        private final LongAdder[] _buckets = new LongAdder[65];
+
+        /** Sum of the values recorded. */
+        private final LongAdder _sum = new LongAdder();
+
+        /** Largest value recorded. */
+        private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+    }
+
+    /** A summary of the values recorded in a histogram. */
+    static final class Summary {
+
+        /** A summary of BUCKETS, as kept by Histogram, holding COUNT
+         *  values totalling SUM with greatest value MAX. */
+        private Summary(long[] buckets, long count, long sum, long max) {
+            _buckets = buckets;
+            _count = count;
+            _sum = sum;
+            _max = max;
+        }
+
+        /** Return the number of values recorded. */
+        long count() {
+            return _count;
+        }
+
+        /** Return the mean value recorded, or 0 if there are none. */
+        double mean() {
+            return _count == 0 ? 0 : (double) _sum / _count;
+        }
+
+        /** Return the largest value recorded, or 0 if there are none. */
+        long max() {
+            return _max;
+        }
+
+        /** Return an upper bound, within a factor of two, on the value at
+         *  fraction P of the way through the recorded values in order, or
+         *  0 if there are none. */
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p * _count);
+            long seen = 0;
+            for (int k = 0; k < _buckets.length; k += 1) {
+                seen += _buckets[k];
+                if (seen >= rank && seen > 0) {
+                    return k == 0 ? 0 : Math.min(_max, (1L << k) - 1);
+                }
+            }
+            return _max;
+        }
+
+        /** Values in each bucket. */
+        private final long[] _buckets;
+
+        /** Number, sum and greatest of the values. */
+        private final long _count, _sum, _max;
+    }
+
+    /** The values of a Metrics at one time. */
+    static final class Snapshot {
+
+        /** A snapshot holding COUNTS and SUMMARIES, indexed by the
+         *  ordinals of Count and Distribution. */
+        private Snapshot(long[] counts, Summary[] summaries) {
+            _counts = counts;
+            _summaries = summaries;
+        }
+
+        /** Return the value of COUNT. */
+        long count(Count count) {
+            return _counts[count.ordinal()];
+        }
+
+        /** Return the summary of DIST. */
+        Summary summary(Distribution dist) {
+            return _summaries[dist.ordinal()];
+        }
+
+        /** Return a report of every count and distribution, one per
+         *  line. */
+        @Override
+        public String toString() {
+            Formatter out = new Formatter();
+            for (Count c : Count.values()) {
+                out.format("%-24s %d%n", c._label, count(c));
+            }
+            for (Distribution d : Distribution.values()) {
+                Summary s = summary(d);
+                out.format("%-24s n %d  mean %.1f  p50 %d  p99 %d  max %d%n",
+                           d._label, s.count(), s.mean(),
+                           s.percentile(0.5), s.percentile(0.99), s.max());
+            }
+            return out.toString();
+        }
+
+        /** Values of the counts. */
+        private final long[] _counts;
+
+        /** Summaries of the distributions. */
+        private final Summary[] _summaries;
+    }
+
+    /** One adder for each Count. */
+    private final LongAdder[] _counts = new LongAdder[Count.values().length];
+
+    /** One histogram for each Distribution. */
+    private final Histogram[] _histograms =
+        new Histogram[Distribution.values().length];
+
+}
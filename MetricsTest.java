@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static enigma.TestUtils.*;
+import static enigma.Metrics.Count.*;
+import static enigma.Metrics.Distribution.*;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Heming Wu
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkDoubleStep() {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "I", "II",
+                                                   "III" },
+                                 "AADU", "", "");
+        Metrics metrics = new Metrics();
+        m.setMetrics(metrics);
+        m.convert("ABC");
+        assertEquals(0, metrics.snapshot().count(CHARACTERS));
+        m.publishMetrics();
+        Metrics.Snapshot s = metrics.snapshot();
+        assertEquals(3, s.count(CHARACTERS));
+        assertEquals(1 + 2 + 3, s.count(ROTOR_ADVANCES));
+        assertEquals(1, s.count(DOUBLE_STEPS));
+    }
+
+    @Test
+    public void checkParallelCounts() {
+        String[] rotors = { "B", "Beta", "III", "IV", "I" };
+        Machine one = navalMachine(3, rotors, "AXLE", "", "");
+        Machine many = navalMachine(3, rotors, "AXLE", "", "");
+        Metrics a = new Metrics(), b = new Metrics();
+        one.setMetrics(a);
+        many.setMetrics(b);
+        many.setParallelism(4, 1000);
+        char[] msg = new char[50000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = UPPER.toChar(i * 7 % 26);
+        }
+        one.convert(msg, 0, msg.length, new char[msg.length], 0);
+        many.convert(msg, 0, msg.length, new char[msg.length], 0);
+        one.publishMetrics();
+        many.publishMetrics();
+        for (Metrics.Count c : new Metrics.Count[] {
+                CHARACTERS, ROTOR_ADVANCES, DOUBLE_STEPS }) {
+            assertEquals(a.snapshot().count(c), b.snapshot().count(c));
+        }
+        assertEquals(msg.length, a.snapshot().count(CHARACTERS));
+    }
+
+    @Test
+    public void checkSettingsCounted() {
+        Machine m = navalMachine(3, new String[] { "B", "Beta", "I", "II",
+                                                   "III" },
+                                 "AAAA", "", "");
+        Metrics metrics = new Metrics();
+        m.setMetrics(metrics);
+        Settings settings = new Settings(m);
+        settings.apply("B Beta I II III AAAA (AB)".toCharArray(), 25);
+        settings.apply("*C Gamma IV V VI BBBB".toCharArray(), 21);
+        Metrics.Snapshot s = metrics.snapshot();
+        assertEquals(2, s.count(RECONFIGURATIONS));
+        assertEquals(2, s.summary(SETUP_NANOS).count());
+    }
+
+    @Test
+    public void checkHistogram() {
+        Metrics metrics = new Metrics();
+        for (int i = 1; i <= 100; i += 1) {
+            metrics.record(MESSAGE_LENGTH, i);
+        }
+        metrics.record(MESSAGE_LENGTH, 0);
+        Metrics.Summary s = metrics.snapshot().summary(MESSAGE_LENGTH);
+        assertEquals(101, s.count());
+        assertEquals(50.0, s.mean(), 1e-9);
+        assertEquals(100, s.max());
+        assertEquals(0, s.percentile(0.0));
+        long median = s.percentile(0.5);
+        assertTrue(median >= 50 && median < 100);
+        assertEquals(100, s.percentile(1.0));
+        assertEquals(0, new Metrics().snapshot().summary(MESSAGE_NANOS)
+                     .percentile(0.99));
+    }
+
+    @Test
+    public void checkStreams() throws IOException {
+        Metrics metrics = new Metrics();
+        InputStream in = metrics.counting(
+            new ByteArrayInputStream(new byte[1000]));
+        in.read();
+        assertEquals(999, in.read(new byte[2000], 0, 2000));
+        assertEquals(-1, in.read());
+        OutputStream out = metrics.counting(new ByteArrayOutputStream());
+        out.write(1);
+        out.write(new byte[10], 2, 5);
+        Metrics.Snapshot s = metrics.snapshot();
+        assertEquals(1000, s.count(BYTES_READ));
+        assertEquals(6, s.count(BYTES_WRITTEN));
+        assertTrue(s.toString().contains("bytes read"));
+    }
+
+}
@@ -9,37 +9,30 @@ class MovingRotor extends Rotor {
 
     /** A rotor named NAME whose permutation in its default setting is
      *  PERM, and whose notches are at the positions indicated in NOTCHES.
-     *  The Rotor is initally in its 0 setting (first character of its
-     *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
-        super(name, perm);
-        _notches = notches.toCharArray();
+        this(name, perm, notches, DEFAULT_TABLES);
     }
 
-    @Override
-    boolean rotates() {
-        return true;
+    /** As for MovingRotor(NAME, PERM, NOTCHES), converting through
+     *  precomputed tables iff TABLES. */
+    MovingRotor(String name, Permutation perm, String notches,
+                boolean tables) {
+        super(name, perm, notches, tables);
+        _notches = notches;
     }
 
     @Override
-    boolean atNotch() {
-        for (char c : _notches) {
-            if (this.alphabet().toInt(c) == this.setting()) {
-                return true;
-            }
-        }
-        return false;
+    boolean rotates() {
+        return true;
     }
 
-
-    @Override
-    void advance() {
-        int posn = this.permutation().wrap(this.setting() + 1);
-        set(posn);
+    /** Return my notches, as characters of my alphabet. */
+    String notches() {
+        return _notches;
     }
 
     /** Notches of the rotors. */
-    private char[] _notches;
+    private final String _notches;
 
 }
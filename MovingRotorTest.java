@@ -20,7 +20,7 @@ public class MovingRotorTest {
 
     /* ***** TESTING UTILITIES ***** */
 
-    private Rotor rotor;
+    private Rotor.Cursor rotor;
     private String alpha = UPPER_STRING;
 
     /** Check that rotor has an alphabet whose size is that of
@@ -30,7 +30,7 @@ public class MovingRotorTest {
     private void checkRotor(String testId,
                             String fromAlpha, String toAlpha) {
         int N = fromAlpha.length();
-        assertEquals(testId + " (wrong length)", N, rotor.size());
+        assertEquals(testId + " (wrong length)", N, rotor.rotor().size());
         for (int i = 0; i < N; i += 1) {
             char c = fromAlpha.charAt(i), e = toAlpha.charAt(i);
             int ci = alpha.indexOf(c), ei = alpha.indexOf(e);
@@ -45,8 +45,9 @@ public class MovingRotorTest {
      *  specified by the NAME entry in ROTORS, with given NOTCHES. */
     private void setRotor(String name, HashMap<String, String> rotors,
                           String notches) {
-        rotor = new MovingRotor(name, new Permutation(rotors.get(name), UPPER),
-                                notches);
+        rotor = new Rotor.Cursor(
+            new MovingRotor(name, new Permutation(rotors.get(name), UPPER),
+                            notches));
     }
 
     /* ***** TESTS ***** */
@@ -71,4 +72,55 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkTablesMatchArithmetic() {
+        setRotor("VI", NAVALA, "ZM");
+        int[] forward = new int[26 * 26 * 26];
+        int[] backward = new int[26 * 26 * 26];
+        for (int ring = 0, k = 0; ring < 26; ring += 1) {
+            rotor.ringSet(ring);
+            for (int posn = 0; posn < 26; posn += 1) {
+                rotor.set(posn);
+                for (int p = 0; p < 26; p += 1, k += 1) {
+                    forward[k] = rotor.convertForward(p);
+                    backward[k] = rotor.convertBackward(p);
+                }
+            }
+        }
+        assertTrue(rotor.rotor().usesTables());
+        Rotor.Cursor plain = new Rotor.Cursor(
+            new MovingRotor("VI", rotor.rotor().permutation(), "ZM", false));
+        assertFalse(plain.rotor().usesTables());
+        for (int ring = 0, k = 0; ring < 26; ring += 1) {
+            plain.ringSet(ring);
+            for (int posn = 0; posn < 26; posn += 1) {
+                plain.set(posn);
+                for (int p = 0; p < 26; p += 1, k += 1) {
+                    assertEquals(forward[k], plain.convertForward(p));
+                    assertEquals(backward[k], plain.convertBackward(p));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkCursorsIndependent() {
+        setRotor("I", NAVALA, "Q");
+        Rotor.Cursor other = new Rotor.Cursor(rotor.rotor());
+        for (int i = 0; i < 16; i += 1) {
+            other.advance();
+        }
+        assertTrue(other.atNotch());
+        assertFalse(rotor.atNotch());
+        checkRotor("Rotor I (A)", UPPER_STRING, NAVALA_MAP.get("I"));
+        rotor.advance();
+        checkRotor("Rotor I advanced", UPPER_STRING, NAVALB_MAP.get("I"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkReflectorSetting() {
+        new Rotor.Cursor(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                            UPPER))).set(1);
+    }
+
 }
@@ -0,0 +1,118 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import static enigma.EnigmaException.*;
+
+/** Scores text by the sum of the log probabilities of its overlapping
+ *  n-grams, as estimated from a table of n-gram counts.  The
+ *  probabilities are held in one flat table indexed by the n-gram read
+ *  as a base-size() number, so scoring is a single pass with no
+ *  lookups by string.
+ *  @author Heming Wu
+ */
+class NGramScorer implements Scorer {
+
+    /** A scorer for N-grams of ALPHA whose counts are read from INPUT,
+     *  one n-gram per line followed by whitespace and its count.  Lines
+     *  that are blank or start with '#' are ignored.  N-grams that do
+     *  not appear are given a count of 0.01. */
+    NGramScorer(Alphabet alpha, int n, Reader input) {
+        if (n < 1) {
+            throw error("n-grams need at least one character");
+        }
+        long cells = 1;
+        try {
+            for (int i = 0; i < n; i += 1) {
+                cells = Math.multiplyExact(cells, alpha.size());
+            }
+        } catch (ArithmeticException excp) {
+            cells = Long.MAX_VALUE;
+        }
+        if (cells > MAX_TABLE_SIZE) {
+            throw error("n-gram table for %d-grams too large", n);
+        }
+        _n = n;
+        _size = alpha.size();
+        _high = (int) (cells / _size);
+        _logProb = new float[(int) cells];
+
+        double[] counts = new double[_logProb.length];
+        double total = 0;
+        try (BufferedReader lines = new BufferedReader(input)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2 || fields[0].length() != n) {
+                    throw error("bad n-gram entry: %s", line);
+                }
+                int index = 0;
+                for (int i = 0; i < n; i += 1) {
+                    int c = alpha.toInt(fields[0].charAt(i));
+                    if (c < 0) {
+                        throw error("n-gram not in alphabet: %s", line);
+                    }
+                    index = index * _size + c;
+                }
+                double count = Double.parseDouble(fields[1]);
+                counts[index] += count;
+                total += count;
+            }
+        } catch (IOException excp) {
+            throw error("could not read n-gram counts");
+        } catch (NumberFormatException excp) {
+            throw error("bad n-gram count");
+        }
+        if (total <= 0) {
+            throw error("no n-gram counts");
+        }
+        for (int i = 0; i < counts.length; i += 1) {
+            _logProb[i] =
+                (float) Math.log10(Math.max(counts[i], UNSEEN) / total);
+        }
+    }
+
+    /** Return the length of my n-grams. */
+    int length() {
+        return _n;
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        double result = 0;
+        int index = 0;
+        for (int i = 0; i < len; i += 1) {
+            index = (index % _high) * _size + text[i];
+            if (i >= _n - 1) {
+                result += _logProb[index];
+            }
+        }
+        return result;
+    }
+
+    /** Count assumed for n-grams missing from the table. */
+    private static final double UNSEEN = 0.01;
+
+    /** Largest number of entries in a table. */
+    private static final long MAX_TABLE_SIZE = 1 << 26;
+
+    /** Length of my n-grams. */
+    private final int _n;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** _size to the power _n - 1. */
+    private final int _high;
+
+    /** Base-10 log probability of each n-gram, indexed by the n-gram as
+     *  a base-_size number. */
+    private final float[] _logProb;
+
+}
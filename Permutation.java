@@ -15,10 +15,16 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles.replace(" ", "").replace("(", "")
-                .replace(")", "@").split("@");
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = -1;
+            _inverse[i] = -1;
+        }
 
-        for (String s : _cycles) {
+        String[] parsed = cycles.replace(" ", "").replace("(", "")
+                .replace(")", "@").split("@");
+        for (String s : parsed) {
             for (int i = 0; i < s.length(); i++) {
                 char element = s.charAt(i);
                 if (_alphabet.toInt(element) < 0) {
@@ -28,12 +34,54 @@ class Permutation {
                 }
             }
         }
+        for (String s : parsed) {
+            addCycle(s);
+        }
+
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] < 0) {
+                _forward[i] = i;
+            }
+            if (_inverse[i] < 0) {
+                _inverse[i] = i;
+            }
+        }
+    }
+
+    /** A permutation of ALPHABET taking each index I to FORWARD[I], whose
+     *  inverse takes I to INVERSE[I].  The arrays are used directly, not
+     *  copied, and are checked to be inverse permutations. */
+    Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+        int n = alphabet.size();
+        if (forward.length != n || inverse.length != n) {
+            throw error("permutation does not match alphabet");
+        }
+        for (int i = 0; i < n; i++) {
+            if (forward[i] < 0 || forward[i] >= n
+                || inverse[forward[i]] != i) {
+                throw error("tables are not inverse permutations");
+            }
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
+     *  c0c1...cm.  A character that already belongs to an earlier cycle
+     *  keeps its earlier mapping. */
     private void addCycle(String cycle) {
-        _cycles[_cycles.length + 1] = cycle;
+        int len = cycle.length();
+        for (int i = 0; i < len; i++) {
+            int from = _alphabet.toInt(cycle.charAt(i));
+            if (_forward[from] < 0) {
+                _forward[from] = _alphabet.toInt(cycle.charAt((i + 1) % len));
+            }
+            if (_inverse[from] < 0) {
+                _inverse[from] =
+                    _alphabet.toInt(cycle.charAt((i + len - 1) % len));
+            }
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -53,61 +101,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int index = wrap(p);
-        char oriLetter = _alphabet.toChar(index);
-        String targetCycle = "";
-
-        if (_cycles.length == 1 && _cycles[0].equals("")) {
-            return p;
-        }
-        for (String s: _cycles) {
-            if (s.indexOf(oriLetter) >= 0) {
-                targetCycle = s;
-                break;
-            }
-        }
-        if (targetCycle.equals("")) {
-            return p;
-        }
-
-        if (targetCycle.indexOf(oriLetter) < targetCycle.length() - 1) {
-            char outLetter = targetCycle.
-                    charAt(targetCycle.indexOf(oriLetter) + 1);
-            return _alphabet.toInt(outLetter);
-        } else {
-            char outLetter = targetCycle.charAt(0);
-            return _alphabet.toInt(outLetter);
-        }
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int index = wrap(c);
-        char oriLetter = _alphabet.toChar(index);
-
-        if (_cycles.length == 1 && _cycles[0].equals("")) {
-            return c;
-        }
-        String targetCycle = "";
-        for (String s: _cycles) {
-            if (s.indexOf(oriLetter) >= 0) {
-                targetCycle = s;
-                break;
-            }
-        }
-        if (targetCycle.equals("")) {
-            return c;
-        }
-
-        if (targetCycle.indexOf(oriLetter) > 0) {
-            char outLetter = targetCycle.
-                    charAt(targetCycle.indexOf(oriLetter) - 1);
-            return _alphabet.toInt(outLetter);
-        } else {
-            char outLetter = targetCycle.charAt(targetCycle.length() - 1);
-            return _alphabet.toInt(outLetter);
-        }
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -131,9 +131,8 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < _alphabet.size(); i++) {
-            char element = _alphabet.toChar(i);
-            if (permute(element) == element) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
@@ -143,6 +142,9 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** The cycles provided. */
-    private String[] _cycles;
+    /** Image of each index under this permutation. */
+    private final int[] _forward;
+
+    /** Image of each index under the inverse of this permutation. */
+    private final int[] _inverse;
 }
@@ -111,5 +111,22 @@ public class PermutationTest {
         checkPerm("VIII", UPPER_STRING, NAVALZ_MAP.get("VIII"));
     }
 
+    @Test
+    public void checkDerangement() {
+        perm = new Permutation(NAVALA.get("B"), UPPER);
+        assertTrue(perm.derangement());
+        perm = new Permutation(NAVALA.get("I"), UPPER);
+        assertFalse(perm.derangement());
+    }
+
+    @Test
+    public void checkWrappedIndices() {
+        perm = new Permutation(NAVALA.get("I"), UPPER);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(perm.permute(i), perm.permute(i + UPPER.size()));
+            assertEquals(perm.invert(i), perm.invert(i - UPPER.size()));
+        }
+    }
+
 
 }
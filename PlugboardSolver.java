@@ -0,0 +1,291 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the plugboard of a message whose rotors and start settings
+ *  are known, by hill climbing: starting from a random plugboard, it
+ *  repeatedly tries connecting, disconnecting or rewiring each pair of
+ *  letters, keeping any change that raises the score of the
+ *  decryption, until no change helps.  Several climbs from different
+ *  random starts run in parallel and the best result is kept.
+ *
+ *  Because the rotors are fixed, their substitution at each position
+ *  of the message is computed once, and a decryption under a trial
+ *  plugboard is then two table lookups per character.
+ *  @author Heming Wu
+ */
+class PlugboardSolver {
+
+    /** A solver for CIPHERTEXT (whitespace ignored), enciphered by
+     *  MACHINE with its rotors at their present settings.  MACHINE's
+     *  plugboard is ignored, and MACHINE is not changed. */
+    PlugboardSolver(Machine machine, String ciphertext) {
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        _cipher = indices(ciphertext);
+        _scrambler = new int[_cipher.length * _size];
+        int[] pos = machine.positions();
+        for (int i = 0, k = 0; i < _cipher.length; i += 1) {
+            machine.step(pos);
+            for (int c = 0; c < _size; c += 1, k += 1) {
+                _scrambler[k] = machine.scrambleAt(pos, c);
+            }
+        }
+        _maxPairs = Math.min(DEFAULT_MAX_PAIRS, _size / 2);
+    }
+
+    /** Allow at most PAIRS connected pairs of letters (initially 10, or
+     *  as many as the alphabet allows). */
+    void setMaxPairs(int pairs) {
+        if (pairs < 0 || pairs > _size / 2) {
+            throw error("bad number of plugboard pairs");
+        }
+        _maxPairs = pairs;
+    }
+
+    /** Climb from RESTARTS random starting plugboards (initially 8). */
+    void setRestarts(int restarts) {
+        if (restarts < 1) {
+            throw error("must make at least one start");
+        }
+        _restarts = restarts;
+    }
+
+    /** Run climbs on THREADS threads (initially the number of available
+     *  processors). */
+    void setParallelism(int threads) {
+        if (threads < 1) {
+            throw error("parallelism must be positive");
+        }
+        _threads = threads;
+    }
+
+    /** Choose random starting plugboards using SEED. */
+    void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /** Return the best plugboard found according to SCORER. */
+    Result solve(Scorer scorer) {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            List<Callable<Result>> climbs = new ArrayList<>();
+            for (int k = 0; k < _restarts; k += 1) {
+                long seed = _seed + k;
+                climbs.add(() -> climb(scorer, new Random(seed)));
+            }
+            Result best = null;
+            for (Future<Result> climb : pool.invokeAll(climbs)) {
+                Result r = climb.get();
+                if (best == null || r.score() > best.score()) {
+                    best = r;
+                }
+            }
+            return best;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("plugboard search interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("plugboard search failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the result of one climb according to SCORER from a
+     *  starting plugboard chosen with RANDOM. */
+    private Result climb(Scorer scorer, Random random) {
+        int[] plug = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            plug[c] = c;
+        }
+        int pairs = 0;
+        for (int n = random.nextInt(_maxPairs + 1); pairs < n; ) {
+            int a = random.nextInt(_size), b = random.nextInt(_size);
+            if (a != b && plug[a] == a && plug[b] == b) {
+                plug[a] = b;
+                plug[b] = a;
+                pairs += 1;
+            }
+        }
+        int[] plain = new int[_cipher.length];
+        double best = scorer.score(decrypt(plug, plain), plain.length);
+
+        for (boolean improved = true; improved; ) {
+            improved = false;
+            for (int a = 0; a < _size; a += 1) {
+                for (int b = a + 1; b < _size; b += 1) {
+                    int pa = plug[a], pb = plug[b];
+                    int change = rewire(plug, a, b);
+                    if (pairs + change <= _maxPairs) {
+                        double score =
+                            scorer.score(decrypt(plug, plain), plain.length);
+                        if (score > best) {
+                            best = score;
+                            pairs += change;
+                            improved = true;
+                            continue;
+                        }
+                    }
+                    plug[a] = pa;
+                    plug[pa] = a;
+                    plug[b] = pb;
+                    plug[pb] = b;
+                }
+            }
+        }
+        decrypt(plug, plain);
+        return new Result(cycles(plug), best, text(plain));
+    }
+
+    /** Change PLUG so that A and B are connected to each other, or, if
+     *  they already are, to neither.  Return the change in the number of
+     *  connected pairs. */
+    private static int rewire(int[] plug, int a, int b) {
+        if (plug[a] == b) {
+            plug[a] = a;
+            plug[b] = b;
+            return -1;
+        }
+        int change = 1;
+        if (plug[a] != a) {
+            plug[plug[a]] = plug[a];
+            change -= 1;
+        }
+        if (plug[b] != b) {
+            plug[plug[b]] = plug[b];
+            change -= 1;
+        }
+        plug[a] = b;
+        plug[b] = a;
+        return change;
+    }
+
+    /** Decrypt my ciphertext with plugboard PLUG into PLAIN, returning
+     *  PLAIN. */
+    private int[] decrypt(int[] plug, int[] plain) {
+        for (int i = 0, k = 0; i < _cipher.length; i += 1, k += _size) {
+            plain[i] = plug[_scrambler[k + plug[_cipher[i]]]];
+        }
+        return plain;
+    }
+
+    /** Return plugboard PLUG in cycle notation. */
+    private String cycles(int[] plug) {
+        StringBuilder result = new StringBuilder();
+        for (int c = 0; c < _size; c += 1) {
+            if (plug[c] > c) {
+                result.append('(').append(_alphabet.toChar(c))
+                    .append(_alphabet.toChar(plug[c])).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the characters of my alphabet with indices TEXT. */
+    private String text(int[] text) {
+        char[] result = new char[text.length];
+        for (int i = 0; i < text.length; i += 1) {
+            result[i] = _alphabet.toChar(text[i]);
+        }
+        return new String(result);
+    }
+
+    /** Return the indices of the characters of TEXT in my alphabet,
+     *  skipping whitespace. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            result[n] = _alphabet.toInt(c);
+            if (result[n] < 0) {
+                throw error("Letter(s) not in alphabet");
+            }
+            n += 1;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** A recovered plugboard, with the score and text of its
+     *  decryption. */
+    static final class Result {
+
+        /** A result for plugboard PLUGBOARD in cycle notation, whose
+         *  decryption PLAINTEXT scored SCORE. */
+        Result(String plugboard, double score, String plaintext) {
+            _plugboard = plugboard;
+            _score = score;
+            _plaintext = plaintext;
+        }
+
+        /** Return the plugboard in cycle notation. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return the score of the decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** Return the decryption. */
+        String plaintext() {
+            return _plaintext;
+        }
+
+        /** Plugboard in cycle notation. */
+        private final String _plugboard;
+
+        /** Score of the decryption. */
+        private final double _score;
+
+        /** The decryption. */
+        private final String _plaintext;
+    }
+
+    /** Default limit on connected pairs. */
+    private static final int DEFAULT_MAX_PAIRS = 10;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** The ciphertext, as indices. */
+    private final int[] _cipher;
+
+    /** _scrambler[I * _size + C] is the rotors' substitution of C at
+     *  position I of the ciphertext. */
+    private final int[] _scrambler;
+
+    /** Most connected pairs allowed. */
+    private int _maxPairs;
+
+    /** Number of climbs. */
+    private int _restarts = 8;
+
+    /** Number of threads. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /** Seed for the first climb; climb K uses _seed + K. */
+    private long _seed;
+
+}
@@ -0,0 +1,97 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the PlugboardSolver class.
+ *  @author Heming Wu
+ */
+public class PlugboardSolverTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Text from which n-gram counts are taken, and from which the test
+     *  message is drawn. */
+    private static final String CORPUS =
+        ("It was the best of times it was the worst of times it was the "
+         + "age of wisdom it was the age of foolishness it was the epoch "
+         + "of belief it was the epoch of incredulity it was the season "
+         + "of light it was the season of darkness it was the spring of "
+         + "hope it was the winter of despair we had everything before "
+         + "us we had nothing before us we were all going direct to "
+         + "heaven we were all going direct the other way in short the "
+         + "period was so far like the present period that some of its "
+         + "noisiest authorities insisted on its being received for good "
+         + "or for evil in the superlative degree of comparison only")
+        .toUpperCase().replace(" ", "");
+
+    /** Rotors of the test message. */
+    private static final String[] ROTORS = { "B", "Beta", "III", "IV", "I" };
+
+    /** Return a scorer for N-grams counted in CORPUS. */
+    private NGramScorer scorer(int n) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (int i = 0; i + n <= CORPUS.length(); i += 1) {
+            counts.merge(CORPUS.substring(i, i + n), 1, Integer::sum);
+        }
+        StringBuilder table = new StringBuilder();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            table.append(e.getKey()).append(' ').append(e.getValue())
+                .append('\n');
+        }
+        return new NGramScorer(UPPER, n, new StringReader(table.toString()));
+    }
+
+    /** Return a solver for PLAIN enciphered with plugboard PLUGBOARD. */
+    private PlugboardSolver solver(String plain, String plugboard) {
+        String cipher =
+            navalMachine(3, ROTORS, "AXLE", "", plugboard).convert(plain);
+        return new PlugboardSolver(navalMachine(3, ROTORS, "AXLE", "",
+                                                "(AB)"),
+                                   cipher);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRecoversPlugboard() {
+        String plain = CORPUS.substring(100, 250);
+        PlugboardSolver s = solver(plain, "(HQ) (EX) (IP) (TR) (BY) (CM)");
+        s.setSeed(1);
+        s.setParallelism(2);
+        PlugboardSolver.Result r = s.solve(scorer(3));
+        assertEquals("(BY)(CM)(EX)(HQ)(IP)(RT)", r.plugboard());
+        assertEquals(plain, r.plaintext());
+    }
+
+    @Test
+    public void checkPairLimit() {
+        String plain = CORPUS.substring(0, 120);
+        PlugboardSolver s = solver(plain, "(HQ) (EX)");
+        s.setMaxPairs(0);
+        s.setRestarts(2);
+        PlugboardSolver.Result r = s.solve(scorer(2));
+        assertEquals("", r.plugboard());
+        s.setMaxPairs(1);
+        r = s.solve(scorer(2));
+        assertTrue(r.plugboard().length() <= 4);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTooManyPairs() {
+        solver("ABC", "").setMaxPairs(14);
+    }
+
+}
@@ -19,7 +19,7 @@ class Reflector extends FixedRotor {
     }
 
     @Override
-    void set(int posn) {
+    void checkSetting(int posn) {
         if (posn != 0) {
             throw error("reflector has only one position");
         }
@@ -3,15 +3,46 @@ package enigma;
 import static enigma.EnigmaException.*;
 
 /** Superclass that represents a rotor in the enigma machine.
+ *
+ *  A rotor's name, permutation and conversion tables never change once
+ *  it is built, so any number of machines, on any number of threads,
+ *  may share one rotor: a Machine keeps the setting and ring setting of
+ *  each of its slots itself and passes them to convertForward and
+ *  convertBackward.  A rotor driven on its own is driven through a
+ *  Cursor, which holds its setting and ring setting.
  *  @author Heming Wu
  */
 class Rotor {
 
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
+        this(name, perm, "");
+    }
+
+    /** A rotor named NAME whose permutation is given by PERM, with
+     *  notches at the settings given by the characters of NOTCHES.
+     *  Characters not in PERM's alphabet mark no notch. */
+    Rotor(String name, Permutation perm, String notches) {
+        this(name, perm, notches, DEFAULT_TABLES);
+    }
+
+    /** A rotor named NAME whose permutation is given by PERM, with
+     *  notches at the settings given by the characters of NOTCHES,
+     *  that converts by lookup in precomputed tables if TABLES and
+     *  otherwise by direct arithmetic on the permutation.  Tables are
+     *  only used for alphabets of at most MAX_TABLE_SIZE characters. */
+    Rotor(String name, Permutation perm, String notches, boolean tables) {
         _name = name;
+        _useTables = tables && perm.size() <= MAX_TABLE_SIZE;
         _permutation = perm;
-
+        _size = perm.size();
+        _notchTable = new boolean[_size];
+        for (int i = 0; i < notches.length(); i += 1) {
+            int posn = perm.alphabet().toInt(notches.charAt(i));
+            if (posn >= 0) {
+                _notchTable[posn] = true;
+            }
+        }
     }
 
     /** Return my name. */
@@ -44,67 +75,78 @@ class Rotor {
         return false;
     }
 
-    /** Return my current setting. */
-    int setting() {
-        return _setting;
+    /** Return true iff I convert through precomputed tables. */
+    boolean usesTables() {
+        return _useTables;
     }
 
-    /** Set setting() to POSN.  */
-    void set(int posn) {
-        _setting = posn;
+    /** Check that POSN is a setting I may be given.  Any setting in
+     *  my alphabet will do unless I am overridden. */
+    void checkSetting(int posn) {
     }
 
-    /** Set setting() to character CPOSN. */
-    void set(char cposn) {
-        _setting = _permutation.alphabet().toInt(cposn);
-    }
-
-    /** Return current ringset. */
-    int ringSetting() {
-        return _ringSetting;
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation at setting POSN and ring setting
+     *  RING. */
+    int convertForward(int posn, int ring, int p) {
+        int shift = posn - ring;
+        return forward(shift < 0 ? shift + _size : shift, p);
     }
 
-    /** Set ringSetting() to a.
-     * @param a The ring setting.
-     * */
-    void ringSet(int a) {
-        _ringSetting = a;
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation at setting POSN and
+     *  ring setting RING. */
+    int convertBackward(int posn, int ring, int e) {
+        int shift = posn - ring;
+        return backward(shift < 0 ? shift + _size : shift, e);
     }
 
-    /** Set ringSetting() to character ca.
-     * @param a The ring setting in char
-     * */
-    void ringSet(char a) {
-        _ringSetting = _permutation.alphabet().toInt(a);
+    /** Return the conversion of P according to my permutation when my
+     *  setting less my ring setting is SHIFT (in 0..size()-1).  Only
+     *  that difference matters: the ring setting turns the wiring
+     *  against the lettered ring. */
+    private int forward(int shift, int p) {
+        Tables tables = tables();
+        if (tables != null) {
+            return tables._forward[shift * _size + p];
+        }
+        int i = _permutation.permute(p + shift);
+        return _permutation.wrap(i - shift);
     }
 
-
-    /** Return the conversion of P (an integer in the range 0..size()-1)
-     *  according to my permutation. */
-    int convertForward(int p) {
-        int enter = _permutation.wrap(p + _setting);
-        int i = _permutation.permute(enter - _ringSetting);
-        int outIndex = _permutation.wrap(i - _setting + _ringSetting);
-        return outIndex;
+    /** Return the conversion of E according to the inverse of my
+     *  permutation when my setting less my ring setting is SHIFT. */
+    private int backward(int shift, int e) {
+        Tables tables = tables();
+        if (tables != null) {
+            return tables._backward[shift * _size + e];
+        }
+        int i = _permutation.invert(e + shift);
+        return _permutation.wrap(i - shift);
     }
 
-    /** Return the conversion of E (an integer in the range 0..size()-1)
-     *  according to the inverse of my permutation. */
-    int convertBackward(int e) {
-        int enter = _permutation.wrap(e + _setting);
-        int i = _permutation.invert(enter - _ringSetting);
-        int out = _permutation.wrap(i - _setting + _ringSetting);
-        return out;
+    /** Return my conversion tables, building them if necessary, or null
+     *  if conversions should use arithmetic. */
+    private Tables tables() {
+        if (!_useTables) {
+            return null;
+        }
+        Tables result = _tables;
+        if (result == null) {
+            result = _tables = new Tables(_permutation);
+        }
+        return result;
     }
 
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
-        return false;
+    /** Returns true iff I would be at a notch at setting POSN. */
+    final boolean notchAt(int posn) {
+        return _notchTable[posn];
     }
 
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
+    /** Return a table whose element P is true iff I have a notch at
+     *  setting P.  The table is shared and must not be changed. */
+    boolean[] notchTable() {
+        return _notchTable;
     }
 
     @Override
@@ -112,16 +154,142 @@ class Rotor {
         return "Rotor " + _name;
     }
 
+    /** A rotor driven on its own: its setting and ring setting, which
+     *  any number of cursors on one rotor keep independently. */
+    static final class Cursor {
+
+        /** A cursor on ROTOR at setting and ring setting 0. */
+        Cursor(Rotor rotor) {
+            _rotor = rotor;
+        }
+
+        /** Return my rotor. */
+        Rotor rotor() {
+            return _rotor;
+        }
+
+        /** Return my current setting. */
+        int setting() {
+            return _setting;
+        }
+
+        /** Set setting() to POSN. */
+        void set(int posn) {
+            _rotor.checkSetting(posn);
+            _setting = posn;
+            _shift = _rotor._permutation.wrap(_setting - _ringSetting);
+        }
+
+        /** Set setting() to character CPOSN. */
+        void set(char cposn) {
+            set(_rotor.alphabet().toInt(cposn));
+        }
+
+        /** Return my current ring setting. */
+        int ringSetting() {
+            return _ringSetting;
+        }
+
+        /** Set ringSetting() to RING. */
+        void ringSet(int ring) {
+            _ringSetting = ring;
+            _shift = _rotor._permutation.wrap(_setting - _ringSetting);
+        }
+
+        /** Set ringSetting() to character CRING. */
+        void ringSet(char cring) {
+            ringSet(_rotor.alphabet().toInt(cring));
+        }
+
+        /** Return the conversion of P (an integer in the range
+         *  0..size()-1) by my rotor at my setting. */
+        int convertForward(int p) {
+            return _rotor.forward(_shift, p);
+        }
+
+        /** Return the conversion of E (an integer in the range
+         *  0..size()-1) by the inverse of my rotor at my setting. */
+        int convertBackward(int e) {
+            return _rotor.backward(_shift, e);
+        }
+
+        /** Returns true iff my rotor is positioned to allow the rotor
+         *  to its left to advance. */
+        boolean atNotch() {
+            return _rotor.rotates() && _rotor.notchAt(_setting);
+        }
+
+        /** Advance my rotor one position, if it rotates. */
+        void advance() {
+            if (_rotor.rotates()) {
+                set(_rotor._permutation.wrap(_setting + 1));
+            }
+        }
+
+        /** The rotor I drive. */
+        private final Rotor _rotor;
+
+        /** My setting. */
+        private int _setting;
+
+        /** My ring setting, initially A (0). */
+        private int _ringSetting;
+
+        /** _setting - _ringSetting, modulo size(). */
+        private int _shift;
+    }
+
+    /** Forward and inverse conversions of a permutation at every shift.
+     *  All fields are final and filled in by the constructor, so a
+     *  Tables may be handed between threads without synchronization;
+     *  two threads that build one at once simply build equal tables. */
+    private static final class Tables {
+
+        /** Tables for PERM. */
+        Tables(Permutation perm) {
+            int size = perm.size();
+            _forward = new int[size * size];
+            _backward = new int[size * size];
+            for (int shift = 0, k = 0; shift < size; shift++) {
+                for (int p = 0; p < size; p++, k++) {
+                    _forward[k] = perm.wrap(perm.permute(p + shift) - shift);
+                    _backward[k] = perm.wrap(perm.invert(p + shift) - shift);
+                }
+            }
+        }
+
+        /** _forward[S * size + P] is the conversion of P at shift S. */
+        private final int[] _forward;
+
+        /** _backward[S * size + E] is the inverse conversion of E at
+         *  shift S. */
+        private final int[] _backward;
+    }
+
     /** My name. */
     private final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    private final Permutation _permutation;
+
+    /** The size of my alphabet. */
+    private final int _size;
+
+    /** _notchTable[P] is true iff I have a notch at setting P. */
+    private final boolean[] _notchTable;
+
+    /** Largest alphabet for which conversion tables are built. */
+    static final int MAX_TABLE_SIZE = 256;
+
+    /** True iff rotors convert through tables by default, which may be
+     *  turned off by setting the system property enigma.noRotorTables. */
+    static final boolean DEFAULT_TABLES =
+        !Boolean.getBoolean("enigma.noRotorTables");
 
-    /** Initial setting of the rotors. */
-    private int _setting;
+    /** True iff I convert through tables. */
+    private final boolean _useTables;
 
-    /** Ring settings of the rotor, initially at A(0). */
-    private int _ringSetting = 0;
+    /** Conversion tables, or null if not yet built. */
+    private Tables _tables;
 
 }
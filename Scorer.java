@@ -0,0 +1,14 @@
+package enigma;
+
+/** A measure of how closely a candidate decryption resembles plaintext,
+ *  used to rank keys in a search.
+ *  @author Heming Wu
+ */
+interface Scorer {
+
+    /** Return the score of the LEN characters TEXT[0 .. LEN-1], given as
+     *  indices in an alphabet.  Higher scores are more plausible.  Must
+     *  be safe to call from several threads at once. */
+    double score(int[] text, int len);
+
+}
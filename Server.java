@@ -0,0 +1,538 @@
+package enigma;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static enigma.EnigmaException.*;
+
+/** A server that loads a configuration once and converts messages for
+ *  clients connected over TCP or a Unix domain socket.  Each connection
+ *  has its own machine, sharing the configuration's rotors, so it keeps
+ *  its rotor settings from one request to the next as the lines of an
+ *  input file do.  Connections are spread over a fixed number of
+ *  threads, each running an NIO selector.
+ *
+ *  Requests and responses are frames: a four-byte big-endian length N,
+ *  then N bytes.  A request's bytes are UTF-8 text in the format of an
+ *  input file: if it starts with '*', its first line is a settings
+ *  line, and the rest is a message whose blanks and line ends are
+ *  ignored.  The response's first byte is 0 on success, followed by the
+ *  converted message in UTF-8 (not in groups), or 1 on an error,
+ *  followed by the error message.  A client may send any number of
+ *  requests without waiting; they are handled and answered in order.
+ *  @author Heming Wu
+ */
+class Server implements Runnable {
+
+    /** A server for CONFIG listening on ADDRESS with THREADS threads.
+     *  The listening socket is open when this returns; the server
+     *  accepts connections once run is called. */
+    Server(ConfigImage config, SocketAddress address, int threads) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        _config = config;
+        try {
+            if (address instanceof UnixDomainSocketAddress) {
+                _listener =
+                    ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                _socketFile = ((UnixDomainSocketAddress) address).getPath();
+            } else {
+                _listener = ServerSocketChannel.open();
+                _socketFile = null;
+            }
+            _listener.bind(address);
+            _listener.configureBlocking(false);
+            _loops = new Loop[threads];
+            for (int i = 0; i < threads; i += 1) {
+                _loops[i] = new Loop();
+            }
+            _listener.register(_loops[0]._selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException excp) {
+            throw error("could not listen on %s: %s", address,
+                        excp.getMessage());
+        }
+    }
+
+    /** Return the socket address described by SPEC: "unix:PATH" for a
+     *  Unix domain socket, "HOST:PORT", or just "PORT" for that port on
+     *  the loopback address. */
+    static SocketAddress address(String spec) {
+        if (spec.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(spec.substring(5));
+        }
+        int colon = spec.lastIndexOf(':');
+        try {
+            int port = Integer.parseInt(spec.substring(colon + 1));
+            if (colon < 0) {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                             port);
+            }
+            return new InetSocketAddress(spec.substring(0, colon), port);
+        } catch (IllegalArgumentException excp) {
+            throw error("bad address %s", spec);
+        }
+    }
+
+    /** Make the machines of connections accepted from now on share the
+     *  keystreams in CACHE (none if null), as for
+     *  Machine.setKeystreamCache. */
+    void setKeystreamCache(KeystreamCache cache) {
+        _keystreams = cache;
+    }
+
+    /** Make connections accepted from now on count bytes, requests,
+     *  settings lines, characters and rotor movements in METRICS (none
+     *  if null), each request's message being one message line. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Return the address I am listening on. */
+    SocketAddress address() {
+        try {
+            return _listener.getLocalAddress();
+        } catch (IOException excp) {
+            throw error("server is closed");
+        }
+    }
+
+    /** Serve clients until close is called, running the first selector
+     *  loop on the calling thread and the others on new daemon
+     *  threads. */
+    @Override
+    public void run() {
+        for (int i = 1; i < _loops.length; i += 1) {
+            Thread t = new Thread(_loops[i], "enigma-server-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        _loops[0].run();
+    }
+
+    /** Stop listening and close all connections. */
+    void close() {
+        _closed = true;
+        try {
+            _listener.close();
+            if (_socketFile != null) {
+                Files.deleteIfExists(_socketFile);
+            }
+        } catch (IOException excp) {
+            /* Nothing more to release. */
+        }
+        for (Loop loop : _loops) {
+            loop._selector.wakeup();
+        }
+    }
+
+    /** One thread's selector and the connections registered with it. */
+    private class Loop implements Runnable {
+
+        /** A loop with a new selector. */
+        Loop() throws IOException {
+            _selector = Selector.open();
+        }
+
+        /** Hand CHANNEL to this loop, from any thread. */
+        void add(SocketChannel channel) {
+            _pending.add(channel);
+            _selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!_closed) {
+                    _selector.select();
+                    for (SocketChannel ch = _pending.poll(); ch != null;
+                         ch = _pending.poll()) {
+                        try {
+                            ch.register(_selector, SelectionKey.OP_READ,
+                                        new Connection(ch));
+                        } catch (IOException excp) {
+                            closeQuietly(ch);
+                        }
+                    }
+                    for (SelectionKey key : _selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    _selector.selectedKeys().clear();
+                }
+            } catch (IOException | ClosedSelectorException excp) {
+                /* Shut down this loop. */
+            } finally {
+                for (SelectionKey key : _selector.keys()) {
+                    cancel(key);
+                }
+                try {
+                    _selector.close();
+                } catch (IOException excp) {
+                    /* Already shutting down. */
+                }
+            }
+        }
+
+        /** Act on the ready operations of KEY. */
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection conn = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    conn.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.write();
+                }
+                if (conn._closing && conn._out.position() == 0) {
+                    cancel(key);
+                } else {
+                    key.interestOps(conn.interest());
+                }
+            } catch (IOException excp) {
+                cancel(key);
+            }
+        }
+
+        /** Accept a waiting connection, if any, and hand it to the next
+         *  loop in turn. */
+        private void accept() {
+            SocketChannel ch = null;
+            try {
+                ch = _listener.accept();
+                if (ch != null) {
+                    ch.configureBlocking(false);
+                    _loops[_next++ % _loops.length].add(ch);
+                }
+            } catch (IOException excp) {
+                if (ch != null) {
+                    closeQuietly(ch);
+                }
+            }
+        }
+
+        /** Cancel KEY and close its channel, ignoring errors. */
+        private void cancel(SelectionKey key) {
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+
+        /** My selector. */
+        private final Selector _selector;
+
+        /** Accepted channels not yet registered with _selector. */
+        private final Queue<SocketChannel> _pending =
+            new ConcurrentLinkedQueue<>();
+
+        /** Number of connections accepted, used to pick their loops. */
+        private int _next;
+    }
+
+    /** One client connection: its buffers and machine. */
+    private class Connection {
+
+        /** A connection over CHANNEL. */
+        Connection(SocketChannel channel) {
+            _channel = channel;
+            _settings = new Settings(_config.machine());
+            _settings.machine().setKeystreamCache(_keystreams);
+            _metrics = Server.this._metrics;
+            _settings.machine().setMetrics(_metrics);
+        }
+
+        /** Return the operations I am waiting for: reading unless my
+         *  unsent output is large or I am closing, and writing while
+         *  output is unsent. */
+        int interest() {
+            int ops = 0;
+            if (!_closing && _out.position() < OUTPUT_LIMIT) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (_out.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            return ops;
+        }
+
+        /** Read what is available, answer every complete request, and
+         *  try to send the answers. */
+        void read() throws IOException {
+            int got = _channel.read(_in);
+            if (got < 0) {
+                _closing = true;
+                return;
+            }
+            if (_metrics != null) {
+                _metrics.add(Metrics.Count.BYTES_READ, got);
+            }
+            _in.flip();
+            int needed = 0;
+            while (_in.remaining() >= 4) {
+                int len = _in.getInt(_in.position());
+                if (len < 0 || len > MAX_FRAME) {
+                    _closing = true;
+                    _in.clear();
+                    return;
+                }
+                if (_in.remaining() < 4 + len) {
+                    needed = 4 + len;
+                    break;
+                }
+                int end = _in.position() + 4 + len;
+                ByteBuffer body = _in.duplicate();
+                body.position(_in.position() + 4).limit(end);
+                respond(body);
+                if (_closing) {
+                    _in.clear();
+                    write();
+                    return;
+                }
+                _in.position(end);
+            }
+            _in.compact();
+            if (_in.capacity() < needed) {
+                _in = grow(_in, needed);
+            }
+            write();
+        }
+
+        /** Send as much unsent output as the channel accepts. */
+        void write() throws IOException {
+            _out.flip();
+            int sent = _channel.write(_out);
+            _out.compact();
+            if (_metrics != null) {
+                _metrics.add(Metrics.Count.BYTES_WRITTEN, sent);
+            }
+        }
+
+        /** Append the response to the request BODY to _out.  An
+         *  unexpected failure is reported to the client and closes this
+         *  connection, leaving the others served. */
+        private void respond(ByteBuffer body) {
+            int start = _out.position();
+            long began = _metrics == null ? 0 : System.nanoTime();
+            ensureOutput(5 + 3 * body.remaining());
+            _out.position(start + 5);
+            try {
+                int len = decode(body);
+                int n = convert(len);
+                encode(n);
+                _out.put(start + 4, (byte) 0);
+                if (_metrics != null) {
+                    count(n, began);
+                }
+            } catch (EnigmaException | CharacterCodingException excp) {
+                fail(start, String.valueOf(excp.getMessage()));
+            } catch (RuntimeException excp) {
+                fail(start, "internal error: " + excp);
+                _closing = true;
+            }
+            if (_metrics != null) {
+                _settings.machine().publishMetrics();
+            }
+            _out.putInt(start, _out.position() - start - 4);
+        }
+
+        /** Count a request whose message of N characters was converted
+         *  and encoded starting at time BEGAN. */
+        private void count(int n, long began) {
+            if (n > 0) {
+                _metrics.add(Metrics.Count.MESSAGES, 1);
+                _metrics.record(Metrics.Distribution.MESSAGE_LENGTH, n);
+                _metrics.record(Metrics.Distribution.MESSAGE_NANOS,
+                                System.nanoTime() - began);
+            }
+        }
+
+        /** Replace the response begun at START in _out by an error
+         *  response with message MSG. */
+        private void fail(int start, String msg) {
+            byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+            _out.position(start + 5);
+            ensureOutput(bytes.length);
+            _out.put(bytes);
+            _out.put(start + 4, (byte) 1);
+        }
+
+        /** Decode BODY into _text, returning the number of chars. */
+        private int decode(ByteBuffer body) throws CharacterCodingException {
+            if (_text.length < body.remaining()) {
+                _text = new char[Math.max(body.remaining(),
+                                          2 * _text.length)];
+            }
+            CharBuffer chars = CharBuffer.wrap(_text);
+            _decoder.reset();
+            CoderResult result = _decoder.decode(body, chars, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            _decoder.flush(chars);
+            return chars.position();
+        }
+
+        /** Apply the settings line, if any, at the start of
+         *  _text[0 .. LEN) and convert the message after it in place,
+         *  returning the length of the result, which starts at
+         *  _text[0]. */
+        private int convert(int len) {
+            int start = 0;
+            while (start < len && _text[start] == ' ') {
+                start += 1;
+            }
+            if (start < len && _text[start] == '*') {
+                int end = start;
+                while (end < len && _text[end] != '\n') {
+                    end += 1;
+                }
+                System.arraycopy(_text, start, _text, 0, end - start);
+                _settings.apply(_text, end - start);
+                _configured = true;
+                start = end;
+            }
+            int n = 0;
+            for (int i = start; i < len; i += 1) {
+                char c = _text[i];
+                if (c != ' ' && c != '\n' && c != '\r') {
+                    _text[n++] = c;
+                }
+            }
+            if (n > 0 && !_configured) {
+                throw error("Please specify your settings");
+            }
+            _settings.machine().convert(_text, 0, n, _text, 0);
+            return n;
+        }
+
+        /** Append _text[0 .. N) to _out in UTF-8. */
+        private void encode(int n) throws CharacterCodingException {
+            _encoder.reset();
+            CoderResult result =
+                _encoder.encode(CharBuffer.wrap(_text, 0, n), _out, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            _encoder.flush(_out);
+        }
+
+        /** Make room for at least N more bytes in _out. */
+        private void ensureOutput(int n) {
+            if (_out.remaining() < n) {
+                _out = grow(_out, _out.position() + n);
+            }
+        }
+
+        /** The client's channel. */
+        private final SocketChannel _channel;
+
+        /** Applies settings lines to this connection's machine. */
+        private final Settings _settings;
+
+        /** Metrics kept, or null. */
+        private final Metrics _metrics;
+
+        /** True once a settings line has been applied. */
+        private boolean _configured;
+
+        /** True once the client has closed its side or broken the
+         *  protocol, or a request has failed unexpectedly, so that only
+         *  unsent output remains to be sent. */
+        private boolean _closing;
+
+        /** Received bytes not yet handled, in write mode. */
+        private ByteBuffer _in = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** Response bytes not yet sent, in write mode. */
+        private ByteBuffer _out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** Text of the request being handled. */
+        private char[] _text = new char[BUFFER_SIZE];
+
+        /** Decoder of requests. */
+        private final CharsetDecoder _decoder =
+            StandardCharsets.UTF_8.newDecoder();
+
+        /** Encoder of responses. */
+        private final CharsetEncoder _encoder =
+            StandardCharsets.UTF_8.newEncoder();
+    }
+
+    /** Close CHANNEL, ignoring errors. */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            /* Nothing to do. */
+        }
+    }
+
+    /** Return a buffer in write mode holding the contents of BUF, which
+     *  is in write mode, with capacity at least N. */
+    private static ByteBuffer grow(ByteBuffer buf, int n) {
+        ByteBuffer result =
+            ByteBuffer.allocate(Math.max(n, 2 * buf.capacity()));
+        buf.flip();
+        result.put(buf);
+        return result;
+    }
+
+    /** Initial size of connection buffers. */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** Largest request body accepted; a longer one closes the
+     *  connection. */
+    static final int MAX_FRAME = 1 << 24;
+
+    /** Unsent output beyond which a connection stops reading
+     *  requests. */
+    private static final int OUTPUT_LIMIT = 1 << 20;
+
+    /** The configuration served. */
+    private final ConfigImage _config;
+
+    /** Keystreams shared by new connections' machines, or null. */
+    private volatile KeystreamCache _keystreams;
+
+    /** Metrics kept by new connections, or null. */
+    private volatile Metrics _metrics;
+
+    /** The listening socket. */
+    private final ServerSocketChannel _listener;
+
+    /** The file of a Unix domain listening socket, or null. */
+    private final Path _socketFile;
+
+    /** Selector loops; the first also accepts connections. */
+    private final Loop[] _loops;
+
+    /** True once close has been called. */
+    private volatile boolean _closed;
+
+}
@@ -0,0 +1,183 @@
+package enigma;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author Heming Wu
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings line of the test messages. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n";
+
+    /** The server under test. */
+    private Server _server;
+
+    /** Start a two-thread server on a free loopback port. */
+    @Before
+    public void startServer() {
+        _server = new Server(new ConfigImage(UPPER, 5, 3, navalRotors()),
+                             new InetSocketAddress(
+                                 InetAddress.getLoopbackAddress(), 0), 2);
+        Thread t = new Thread(_server);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Stop the server. */
+    @After
+    public void stopServer() {
+        _server.close();
+    }
+
+    /** Return the response on CHANNEL as a string, preceded by '+' on
+     *  success or '-' on an error. */
+    private String receive(SocketChannel channel) throws IOException {
+        ByteBuffer body =
+            LoadClient.receive(channel, ByteBuffer.allocate(16));
+        char status = body.get() == 0 ? '+' : '-';
+        return status + StandardCharsets.UTF_8.decode(body).toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkPipelined() throws IOException {
+        try (SocketChannel ch = LoadClient.connect(_server.address())) {
+            ByteBuffer all = ByteBuffer.allocate(1024);
+            for (String body : new String[] {
+                    SETTINGS + "FROM HIS SHOULDER\nHIAWATHA",
+                    "TOOK THE CAMERA", "",
+                    SETTINGS + "FROMHISSHOULDERHIAWATHA" }) {
+                all.put(LoadClient.frame(body));
+            }
+            LoadClient.send(ch, all.flip());
+            assertEquals("+QVPQSOKOILPUBKJZPISFXDW", receive(ch));
+            assertEquals("+" + navalMachine(3, new String[] {
+                        "B", "Beta", "III", "IV", "I" }, "AXLE", "",
+                    "(HQ) (EX) (IP) (TR) (BY)")
+                .convert("FROMHISSHOULDERHIAWATHATOOKTHECAMERA")
+                .substring(23), receive(ch));
+            assertEquals("+", receive(ch));
+            assertEquals("+QVPQSOKOILPUBKJZPISFXDW", receive(ch));
+        }
+    }
+
+    @Test
+    public void checkErrors() throws IOException {
+        try (SocketChannel ch = LoadClient.connect(_server.address())) {
+            LoadClient.send(ch, LoadClient.frame("HELLO"));
+            assertEquals("-Please specify your settings", receive(ch));
+            LoadClient.send(ch, LoadClient.frame("* B Beta III IV XI AXLE\n"));
+            assertEquals("-Rotor XI not available", receive(ch));
+            LoadClient.send(ch, LoadClient.frame(SETTINGS + "HI1"));
+            assertTrue(receive(ch).startsWith("-"));
+            LoadClient.send(ch, LoadClient.frame(SETTINGS + "FROM"));
+            assertEquals("+QVPQ", receive(ch));
+        }
+    }
+
+    @Test
+    public void checkErrorKeepsSettings() throws IOException {
+        String[] order = { "B", "Beta", "III", "IV", "I" };
+        String line = "* B Beta III IV I AXLE ";
+        try (SocketChannel ch = LoadClient.connect(_server.address())) {
+            LoadClient.send(ch, LoadClient.frame(line + "(AB)\nHELLOWORLD"));
+            assertEquals("+" + navalMachine(3, order, "AXLE", "", "(AB)")
+                         .convert("HELLOWORLD"), receive(ch));
+            LoadClient.send(ch, LoadClient.frame(line + "(AC)\nHELLOWORLD"));
+            assertEquals("+" + navalMachine(3, order, "AXLE", "", "(AC)")
+                         .convert("HELLOWORLD"), receive(ch));
+            LoadClient.send(ch, LoadClient.frame(
+                "* B Beta III IV XX AXLE (AB)\nHELLOWORLD"));
+            assertEquals("-Rotor XX not available", receive(ch));
+            LoadClient.send(ch, LoadClient.frame(line + "QQQ1 (AB)\nHI"));
+            assertTrue(receive(ch).startsWith("-"));
+            LoadClient.send(ch, LoadClient.frame(line + "(AB)\nHELLOWORLD"));
+            assertEquals("+" + navalMachine(3, order, "AXLE", "", "(AB)")
+                         .convert("HELLOWORLD"), receive(ch));
+        }
+    }
+
+    @Test
+    public void checkUnexpectedFailure() throws IOException {
+        _server.setKeystreamCache(new KeystreamCache(1 << 20, 64) {
+            @Override
+            synchronized Keystream get(Key key) {
+                throw new IllegalStateException("broken cache");
+            }
+        });
+        try (SocketChannel a = LoadClient.connect(_server.address());
+             SocketChannel b = LoadClient.connect(_server.address())) {
+            LoadClient.send(b, LoadClient.frame(SETTINGS + "FROM"));
+            assertEquals("-internal error: java.lang.IllegalStateException: "
+                         + "broken cache", receive(b));
+            ByteBuffer rest = ByteBuffer.allocate(16);
+            assertEquals(-1, b.read(rest));
+            LoadClient.send(a, LoadClient.frame("* B Beta III IV XI AXLE\n"));
+            assertEquals("-Rotor XI not available", receive(a));
+        }
+    }
+
+    @Test
+    public void checkMetrics() throws IOException {
+        Metrics metrics = new Metrics();
+        _server.setMetrics(metrics);
+        try (SocketChannel ch = LoadClient.connect(_server.address())) {
+            ByteBuffer all = ByteBuffer.allocate(1024);
+            for (String body : new String[] {
+                    SETTINGS + "FROM HIS SHOULDER\nHIAWATHA", "",
+                    "TOOK THE CAMERA", "1" }) {
+                all.put(LoadClient.frame(body));
+            }
+            int sent = all.position();
+            LoadClient.send(ch, all.flip());
+            assertEquals("+QVPQSOKOILPUBKJZPISFXDW", receive(ch));
+            assertEquals("+", receive(ch));
+            receive(ch);
+            assertTrue(receive(ch).startsWith("-"));
+            Metrics.Snapshot counts = metrics.snapshot();
+            assertEquals(sent, counts.count(Metrics.Count.BYTES_READ));
+            assertEquals(1, counts.count(Metrics.Count.RECONFIGURATIONS));
+            assertEquals(2, counts.count(Metrics.Count.MESSAGES));
+            assertEquals(36, counts.count(Metrics.Count.CHARACTERS));
+            assertEquals(2, counts.summary(
+                Metrics.Distribution.MESSAGE_LENGTH).count());
+        }
+    }
+
+    @Test
+    public void checkConnectionsIndependent() throws IOException {
+        try (SocketChannel a = LoadClient.connect(_server.address());
+             SocketChannel b = LoadClient.connect(_server.address())) {
+            LoadClient.send(a, LoadClient.frame(SETTINGS + "FROMHIS"));
+            LoadClient.send(b, LoadClient.frame(SETTINGS + "FROM"));
+            assertEquals("+QVPQSOK", receive(a));
+            assertEquals("+QVPQ", receive(b));
+            LoadClient.send(b, LoadClient.frame("HIS"));
+            assertEquals("+SOK", receive(b));
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Applies settings lines to one machine.  A settings line names the
+ *  rotors (reflector first), gives their settings, optionally their
+ *  ring settings, and the plugboard cycles, as in
+ *  "B Beta III IV I AXLE BCDE (HQ) (EX)".  Ring settings carry over
+ *  from the last line that gave them; a line with an error changes
+ *  nothing carried over.  Lines are parsed in place, rotors are looked
+ *  up by name without making strings, and a new plugboard is made only
+ *  when its text differs from the last applied line's, so
+ *  applying a line costs little more than converting a few characters.
+ *  @author Heming Wu
+ */
+class Settings {
+
+    /** A parser applying settings lines to MACHINE. */
+    Settings(Machine machine) {
+        _machine = machine;
+        _numRotors = machine.numRotors();
+        _ringSettings = new int[_numRotors];
+        _newRings = new int[_numRotors];
+        _positions = new int[_numRotors];
+        _rotorIndices = new int[_numRotors];
+        _words = new int[2 * (_numRotors + 2)];
+    }
+
+    /** Return the machine I configure. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Forget the ring settings given by earlier lines, so that lines
+     *  without ring settings use the first position of each ring. */
+    void clearRings() {
+        Arrays.fill(_ringSettings, 0);
+    }
+
+    /** Set my machine according to the settings line LINE[0 .. LEN),
+     *  which must have the format specified in the assignment.  Any '*'
+     *  in it is ignored.  LINE may be changed.  Counts the line and its
+     *  time in my machine's metrics, if it has any. */
+    void apply(char[] line, int len) {
+        Metrics metrics = _machine.metrics();
+        if (metrics == null) {
+            parse(line, len);
+            return;
+        }
+        long start = System.nanoTime();
+        parse(line, len);
+        metrics.add(Metrics.Count.RECONFIGURATIONS, 1);
+        metrics.record(Metrics.Distribution.SETUP_NANOS,
+                       System.nanoTime() - start);
+    }
+
+    /** Set my machine as for apply(LINE, LEN). */
+    private void parse(char[] line, int len) {
+        int n = 0;
+        for (int i = 0; i < len; i += 1) {
+            if (line[i] != '*') {
+                line[n++] = line[i];
+            }
+        }
+        len = n;
+
+        int words = 0;
+        _newPlugText.setLength(0);
+        for (int i = 0; i < len;) {
+            if (line[i] <= ' ') {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            boolean plugs = false;
+            for (; i < len && line[i] > ' '; i += 1) {
+                plugs |= line[i] == '(';
+            }
+            if (plugs) {
+                _newPlugText.append(line, start, i - start);
+            } else {
+                if (words < _numRotors + 2) {
+                    _words[2 * words] = start;
+                    _words[2 * words + 1] = i;
+                }
+                words += 1;
+            }
+        }
+
+        if (words != _numRotors + 1 && words != _numRotors + 2) {
+            throw new EnigmaException("Settings doesn't match "
+                    + "the number of moving rotors.");
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            int start = _words[2 * k], end = _words[2 * k + 1];
+            _rotorIndices[k] = _machine.rotorIndex(line, start, end);
+            if (_rotorIndices[k] < 0) {
+                throw error("Rotor %s not available",
+                            new String(line, start, end - start));
+            }
+        }
+        readSetting(line, _numRotors, _positions);
+        int[] rings = _ringSettings;
+        if (words == _numRotors + 2) {
+            readSetting(line, _numRotors + 1, _newRings);
+            rings = _newRings;
+        }
+        Permutation plugboard = _plugboard;
+        if (plugboard == null || _plugText.compareTo(_newPlugText) != 0) {
+            plugboard = new Permutation(_newPlugText.toString(),
+                                        _machine.alphabet());
+        }
+        _machine.insertRotors(_rotorIndices);
+        _machine.setPlugboard(plugboard);
+        _machine.setRotors(_positions, rings);
+
+        if (rings != _ringSettings) {
+            System.arraycopy(rings, 0, _ringSettings, 0, _numRotors);
+        }
+        if (plugboard != _plugboard) {
+            StringBuilder text = _plugText;
+            _plugText = _newPlugText;
+            _newPlugText = text;
+            _plugboard = plugboard;
+        }
+    }
+
+    /** Read word number K of LINE, as located by _words, into
+     *  RESULT[1 ..] as indices in my machine's alphabet. */
+    private void readSetting(char[] line, int k, int[] result) {
+        int start = _words[2 * k], end = _words[2 * k + 1];
+        if (end - start != _numRotors - 1) {
+            throw error("Settings need one letter for each rotor "
+                        + "other than the reflector");
+        }
+        for (int i = start; i < end; i += 1) {
+            result[i - start + 1] = _machine.settingIndex(line[i]);
+        }
+    }
+
+    /** The machine I configure. */
+    private final Machine _machine;
+
+    /** Number of rotor slots of _machine. */
+    private final int _numRotors;
+
+    /** Ring settings from the last line that gave them, by slot. */
+    private final int[] _ringSettings;
+
+    /** Ring settings of the line being applied, by slot. */
+    private final int[] _newRings;
+
+    /** Rotor settings from the last line, by slot. */
+    private final int[] _positions;
+
+    /** Indices of the rotors named on the last line. */
+    private final int[] _rotorIndices;
+
+    /** Start and end of each word of the last line other than the
+     *  plugboard. */
+    private final int[] _words;
+
+    /** Plugboard text of the last line applied, without blanks. */
+    private StringBuilder _plugText = new StringBuilder();
+
+    /** Plugboard text of the line being applied, without blanks. */
+    private StringBuilder _newPlugText = new StringBuilder();
+
+    /** The plugboard described by _plugText, or null before the first
+     *  line.  Like _plugText and _ringSettings, changed only once a line
+     *  has been applied without error. */
+    private Permutation _plugboard;
+
+}
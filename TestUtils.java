@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -126,4 +127,63 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** The notches of the naval rotors; reflectors and non-moving
+     *  rotors have none. */
+    static final HashMap<String, String> NOTCHES = new HashMap<>();
+    static {
+        NOTCHES.put("I", "Q");
+        NOTCHES.put("II", "E");
+        NOTCHES.put("III", "V");
+        NOTCHES.put("IV", "J");
+        NOTCHES.put("V", "Z");
+        NOTCHES.put("VI", "ZM");
+        NOTCHES.put("VII", "ZM");
+        NOTCHES.put("VIII", "ZM");
+    }
+
+    /** Return fresh instances of all the naval rotors in NAVALA. */
+    static ArrayList<Rotor> navalRotors() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            if (NOTCHES.containsKey(name)) {
+                result.add(new MovingRotor(name, perm, NOTCHES.get(name)));
+            } else if (name.equals("B") || name.equals("C")) {
+                result.add(new Reflector(name, perm));
+            } else {
+                result.add(new FixedRotor(name, perm));
+            }
+        }
+        return result;
+    }
+
+    /** Return a small library of fresh naval rotors: reflectors B and C,
+     *  fixed rotor Beta and moving rotors I, II and III. */
+    static ArrayList<Rotor> library() {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (Rotor r : navalRotors()) {
+            switch (r.name()) {
+            case "B": case "C": case "Beta": case "I": case "II": case "III":
+                result.add(r);
+                break;
+            default:
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Return a machine built from navalRotors() with PAWLS pawls, holding
+     *  ROTORS (reflector first) at SETTING with ring settings RINGS
+     *  (possibly empty) and plugboard PLUGBOARD in cycle notation. */
+    static Machine navalMachine(int pawls, String[] rotors, String setting,
+                                String rings, String plugboard) {
+        Machine result =
+            new Machine(UPPER, rotors.length, pawls, navalRotors());
+        result.insertRotors(rotors);
+        result.setRotors(setting, rings);
+        result.setPlugboard(new Permutation(plugboard, UPPER));
+        return result;
+    }
+
 }
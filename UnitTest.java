@@ -11,7 +11,19 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      MovingRotorTest.class,
+                                      AlphabetTest.class,
+                                      MachineTest.class,
+                                      GroupWriterTest.class,
+                                      KeySearchTest.class,
+                                      BombeTest.class,
+                                      PlugboardSolverTest.class,
+                                      ConfigImageTest.class,
+                                      ServerTest.class,
+                                      MetricsTest.class,
+                                      BatchTest.class,
+                                      KeySweepTest.class,
+                                      KeystreamCacheTest.class));
     }
 
 }
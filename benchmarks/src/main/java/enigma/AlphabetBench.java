@@ -0,0 +1,80 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of building an Alphabet, which should grow linearly with its
+ *  size, and of one Alphabet.toInt, which should not grow at all.
+ *  @author Heming Wu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlphabetBench {
+
+    /** Alphabet size. */
+    @Param({ "26", "256", "4096", "65536" })
+    public int size;
+
+    /** The characters of the alphabet, in scrambled order so that
+     *  indices do not coincide with character codes. */
+    private String chars;
+
+    /** The alphabet measured. */
+    private Alphabet alpha;
+
+    /** Characters looked up, in turn. */
+    private char[] probes;
+
+    /** Next probe. */
+    private int next;
+
+    /** Build the alphabet and probes. */
+    @Setup
+    public void setUp() {
+        char[] symbols = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            symbols[i] = (char) i;
+        }
+        for (int i = size - 1; i > 0; i -= 1) {
+            int j = (i * 31 + 17) % (i + 1);
+            char t = symbols[i];
+            symbols[i] = symbols[j];
+            symbols[j] = t;
+        }
+        chars = new String(symbols);
+        alpha = new Alphabet(chars);
+        probes = new char[1024];
+        for (int i = 0; i < probes.length; i += 1) {
+            probes[i] = chars.charAt((i * 7919) % size);
+        }
+    }
+
+    /** Build the alphabet. */
+    @Benchmark
+    public Alphabet build() {
+        return new Alphabet(chars);
+    }
+
+    /** Look up the next probe. */
+    @Benchmark
+    public int toInt() {
+        next = (next + 1) & (probes.length - 1);
+        return alpha.toInt(probes[next]);
+    }
+
+}
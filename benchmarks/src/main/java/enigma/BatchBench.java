@@ -0,0 +1,95 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of converting many short messages, each under its own key, with
+ *  a Batch and with one machine restored to each key in turn.
+ *  @author Heming Wu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBench {
+
+    /** Alphabet size. */
+    @Param({ "26", "256" })
+    public int size;
+
+    /** Number of messages. */
+    @Param({ "64", "4096" })
+    public int messages;
+
+    /** Length of each message. */
+    @Param({ "32" })
+    public int length;
+
+    /** The machine measured. */
+    private Machine machine;
+
+    /** The batch measured, refilled for each run. */
+    private Batch batch;
+
+    /** The key of each message. */
+    private Machine.Snapshot[] keys;
+
+    /** The messages. */
+    private String[] texts;
+
+    /** Build the machine, keys and messages. */
+    @Setup
+    public void setUp() {
+        machine = Corpora.machine(size);
+        Alphabet alpha = machine.alphabet();
+        keys = new Machine.Snapshot[messages];
+        texts = new String[messages];
+        int[] setting = new int[machine.numRotors()];
+        int[] rings = new int[machine.numRotors()];
+        for (int k = 0; k < messages; k += 1) {
+            for (int i = 1; i < setting.length; i += 1) {
+                setting[i] = (k * 31 + i * 7) % size;
+            }
+            machine.setRotors(setting, rings);
+            keys[k] = machine.snapshot();
+            texts[k] = Corpora.message(alpha, length, k);
+        }
+        batch = new Batch(machine);
+    }
+
+    /** Convert every message with a Batch. */
+    @Benchmark
+    public char[] batch() {
+        batch.clear();
+        for (int k = 0; k < messages; k += 1) {
+            batch.add(keys[k], texts[k]);
+        }
+        batch.run();
+        return batch.output();
+    }
+
+    /** Convert every message with one machine. */
+    @Benchmark
+    public int sequential() {
+        int result = 0;
+        for (int k = 0; k < messages; k += 1) {
+            machine.restore(keys[k]);
+            result += machine.convert(texts[k]).hashCode();
+        }
+        return result;
+    }
+
+}
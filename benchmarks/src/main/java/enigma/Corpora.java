@@ -0,0 +1,109 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Generated alphabets, rotors and messages shared by the benchmarks.
+ *  Everything is derived from fixed seeds, so runs are comparable.
+ *  @author Heming Wu
+ */
+final class Corpora {
+
+    /** Not instantiable. */
+    private Corpora() {
+    }
+
+    /** Return an alphabet of SIZE characters.  Size 26 gives the upper
+     *  case letters; other sizes use consecutive characters starting at
+     *  U+0100, which avoids the characters that cycle notation and
+     *  settings lines reserve. */
+    static Alphabet alphabet(int size) {
+        if (size == 26) {
+            return new Alphabet();
+        }
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            chars.append((char) (0x100 + i));
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Return a random permutation of ALPHA in cycle notation, using
+     *  SEED. */
+    static String cycles(Alphabet alpha, long seed) {
+        int[] order = shuffled(alpha.size(), new Random(seed));
+        StringBuilder result = new StringBuilder("(");
+        for (int i : order) {
+            result.append(alpha.toChar(i));
+        }
+        return result.append(')').toString();
+    }
+
+    /** Return a random pairing of the characters of ALPHA in cycle
+     *  notation, suitable for a reflector, using SEED.  With an odd
+     *  size, one character maps to itself. */
+    static String pairs(Alphabet alpha, long seed) {
+        int[] order = shuffled(alpha.size(), new Random(seed));
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < order.length; i += 2) {
+            result.append('(').append(alpha.toChar(order[i]))
+                .append(alpha.toChar(order[i + 1])).append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return a machine over an alphabet of SIZE characters with a
+     *  reflector, one fixed rotor and three moving rotors, each with
+     *  one notch, set to its first position with a four-pair
+     *  plugboard. */
+    static Machine machine(int size) {
+        Alphabet alpha = alphabet(size);
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation(pairs(alpha, 1), alpha)));
+        rotors.add(new FixedRotor("F", new Permutation(cycles(alpha, 2),
+                                                       alpha)));
+        String[] names = { "R", "F", "M1", "M2", "M3" };
+        for (int k = 1; k <= 3; k += 1) {
+            String notch = String.valueOf(alpha.toChar(k * 7 % size));
+            rotors.add(new MovingRotor("M" + k,
+                                       new Permutation(cycles(alpha, 2 + k),
+                                                       alpha),
+                                       notch));
+        }
+        Machine result = new Machine(alpha, names.length, 3, rotors);
+        result.insertRotors(names);
+        char first = alpha.toChar(0);
+        result.setRotors(String.valueOf(new char[] {
+            first, first, first, first }), "");
+        String plugs = pairs(alpha, 9);
+        result.setPlugboard(new Permutation(plugs.substring(0, 16), alpha));
+        return result;
+    }
+
+    /** Return a random message of LEN characters of ALPHA, using SEED. */
+    static String message(Alphabet alpha, int len, long seed) {
+        Random random = new Random(seed);
+        char[] result = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(result);
+    }
+
+    /** Return the numbers 0 .. N-1 in an order determined by RANDOM. */
+    private static int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = i;
+        }
+        for (int i = n - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,89 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of converting a message under one of a few repeated keys, with
+ *  and without a keystream cache.
+ *  @author Heming Wu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeystreamBench {
+
+    /** Alphabet size. */
+    @Param({ "26", "256" })
+    public int size;
+
+    /** Message length. */
+    @Param({ "64", "1024" })
+    public int length;
+
+    /** Machines without and with a keystream cache. */
+    private Machine plain, cached;
+
+    /** The keys used, in turn. */
+    private Machine.Snapshot[] plainKeys, cachedKeys;
+
+    /** The message converted. */
+    private char[] message;
+
+    /** Output buffer. */
+    private char[] out;
+
+    /** Number of messages converted so far. */
+    private int count;
+
+    /** Build the machines, keys and message. */
+    @Setup
+    public void setUp() {
+        plain = Corpora.machine(size);
+        cached = Corpora.machine(size);
+        cached.setKeystreamCache(new KeystreamCache(1L << 28, length));
+        plainKeys = new Machine.Snapshot[4];
+        cachedKeys = new Machine.Snapshot[4];
+        int[] setting = new int[plain.numRotors()];
+        int[] rings = new int[plain.numRotors()];
+        for (int k = 0; k < plainKeys.length; k += 1) {
+            setting[2] = k * 5 % size;
+            plain.setRotors(setting, rings);
+            cached.setRotors(setting, rings);
+            plainKeys[k] = plain.snapshot();
+            cachedKeys[k] = cached.snapshot();
+        }
+        message = Corpora.message(plain.alphabet(), length, 1).toCharArray();
+        out = new char[length];
+    }
+
+    /** Convert the message under the next key without a cache. */
+    @Benchmark
+    public char[] stepping() {
+        plain.restore(plainKeys[count++ & 3]);
+        plain.convert(message, 0, length, out, 0);
+        return out;
+    }
+
+    /** Convert the message under the next key with a cache. */
+    @Benchmark
+    public char[] keystream() {
+        cached.restore(cachedKeys[count++ & 3]);
+        cached.convert(message, 0, length, out, 0);
+        return out;
+    }
+
+}
@@ -0,0 +1,99 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of Machine.convert on single characters and on messages of
+ *  several lengths, and of reconfiguring a machine as a settings line
+ *  does.
+ *  @author Heming Wu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineBench {
+
+    /** Alphabet size. */
+    @Param({ "26", "256" })
+    public int size;
+
+    /** Message length for convertString. */
+    @Param({ "16", "1024", "65536" })
+    public int length;
+
+    /** The machine measured. */
+    private Machine machine;
+
+    /** The message converted by convertString. */
+    private String message;
+
+    /** Next index converted by convertChar. */
+    private int index;
+
+    /** Two orders of the machine's rotors, as indices, alternated by
+     *  reconfigure. */
+    private int[][] orders;
+
+    /** Settings and ring settings used by reconfigure, by slot. */
+    private int[] setting, rings;
+
+    /** Number of reconfigurations so far. */
+    private int count;
+
+    /** Build the machine and message. */
+    @Setup
+    public void setUp() {
+        machine = Corpora.machine(size);
+        message = Corpora.message(Corpora.alphabet(size), length, 1);
+        String[][] names = { { "R", "F", "M1", "M2", "M3" },
+                             { "R", "F", "M3", "M1", "M2" } };
+        orders = new int[names.length][names[0].length];
+        for (int k = 0; k < names.length; k += 1) {
+            for (int i = 0; i < names[k].length; i += 1) {
+                char[] name = names[k][i].toCharArray();
+                orders[k][i] = machine.rotorIndex(name, 0, name.length);
+            }
+        }
+        setting = new int[names[0].length];
+        rings = new int[names[0].length];
+    }
+
+    /** Convert one character. */
+    @Benchmark
+    public int convertChar() {
+        index = machine.convert(index);
+        return index;
+    }
+
+    /** Insert the other rotor order and a new setting, then convert one
+     *  character. */
+    @Benchmark
+    public int reconfigure() {
+        count += 1;
+        setting[1] = count % size;
+        machine.insertRotors(orders[count & 1]);
+        machine.setRotors(setting, rings);
+        return machine.convert(0);
+    }
+
+    /** Convert a message. */
+    @Benchmark
+    public String convertString() {
+        return machine.convert(message);
+    }
+
+}
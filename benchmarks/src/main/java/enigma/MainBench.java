@@ -0,0 +1,110 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** End-to-end runs of Main on generated input files, using the rotors
+ *  of testing/correct/default.conf.  Run from the benchmarks directory,
+ *  or set the system property enigma.conf to that file.
+ *  @author Heming Wu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MainBench {
+
+    /** Total message characters in the generated input. */
+    @Param({ "100000", "10000000" })
+    public int chars;
+
+    /** Characters per input line. */
+    @Param({ "80", "1000000" })
+    public int lineLength;
+
+    /** Extra Main options, separated by commas. */
+    @Param({ "", "--mmap", "--parallel=4" })
+    public String options;
+
+    /** Configuration file. */
+    private String conf;
+
+    /** Generated input file. */
+    private Path input;
+
+    /** Output file. */
+    private Path output;
+
+    /** Generate the input file. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        conf = System.getProperty("enigma.conf",
+                                  "../testing/correct/default.conf");
+        if (!Files.exists(Paths.get(conf))) {
+            throw new IllegalStateException("cannot find " + conf);
+        }
+        input = Files.createTempFile("enigma-bench", ".in");
+        output = Files.createTempFile("enigma-bench", ".out");
+        Random random = new Random(1);
+        try (Writer out = Files.newBufferedWriter(input,
+                                                  StandardCharsets.US_ASCII)) {
+            out.write("* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n");
+            for (int i = 0; i < chars; i += 1) {
+                out.write('A' + random.nextInt(26));
+                if (i % lineLength == lineLength - 1) {
+                    out.write('\n');
+                } else if (i % 5 == 4) {
+                    out.write(' ');
+                }
+            }
+            out.write('\n');
+        }
+    }
+
+    /** Remove the generated files. */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    /** Encrypt the whole input file into the output file. */
+    @Benchmark
+    public void encryptFile() {
+        String[] args;
+        if (options.isEmpty()) {
+            args = new String[0];
+        } else {
+            args = options.split(",");
+        }
+        String[] all = new String[args.length + 3];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = conf;
+        all[args.length + 1] = input.toString();
+        all[args.length + 2] = output.toString();
+        Main.main(all);
+    }
+
+}
@@ -0,0 +1,59 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of one Permutation.permute or invert.
+ *  @author Heming Wu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermutationBench {
+
+    /** Alphabet size. */
+    @Param({ "26", "256", "4096" })
+    public int size;
+
+    /** The permutation measured. */
+    private Permutation perm;
+
+    /** Next index to convert. */
+    private int index;
+
+    /** Build the permutation. */
+    @Setup
+    public void setUp() {
+        Alphabet alpha = Corpora.alphabet(size);
+        perm = new Permutation(Corpora.cycles(alpha, 1), alpha);
+    }
+
+    /** Apply the permutation. */
+    @Benchmark
+    public int permute() {
+        index = perm.permute(index);
+        return index;
+    }
+
+    /** Apply the inverse permutation. */
+    @Benchmark
+    public int invert() {
+        index = perm.invert(index);
+        return index;
+    }
+
+}
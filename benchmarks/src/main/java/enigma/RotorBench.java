@@ -0,0 +1,76 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of one rotor conversion or notch test, with and without the
+ *  precomputed rotor tables.
+ *  @author Heming Wu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotorBench {
+
+    /** Alphabet size. */
+    @Param({ "26", "256" })
+    public int size;
+
+    /** Whether rotors use their precomputed tables. */
+    @Param({ "true", "false" })
+    public boolean tables;
+
+    /** A cursor on the rotor measured. */
+    private Rotor.Cursor rotor;
+
+    /** Next index to convert. */
+    private int index;
+
+    /** Build the rotor at a nonzero setting and ring setting. */
+    @Setup
+    public void setUp() {
+        Alphabet alpha = Corpora.alphabet(size);
+        rotor = new Rotor.Cursor(
+            new MovingRotor("M", new Permutation(Corpora.cycles(alpha, 1),
+                                                 alpha),
+                            String.valueOf(alpha.toChar(3)), tables));
+        rotor.ringSet(size / 3);
+        rotor.set(size / 2);
+    }
+
+    /** Convert right to left. */
+    @Benchmark
+    public int convertForward() {
+        index = rotor.convertForward(index);
+        return index;
+    }
+
+    /** Convert left to right. */
+    @Benchmark
+    public int convertBackward() {
+        index = rotor.convertBackward(index);
+        return index;
+    }
+
+    /** Test for a notch, advancing so the answer varies. */
+    @Benchmark
+    public boolean atNotch() {
+        rotor.advance();
+        return rotor.atNotch();
+    }
+
+}